@@ -0,0 +1,77 @@
+package mpp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanner, Parser and Resolver measured on their own, each fed the output
+ * of the previous phase prepared once per trial. The *Buffer variants scan
+ * into and parse from a {@link TokenBuffer} instead of a token list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({ "fib", "loop", "dispatch", "strings", "lists" })
+    String workload;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = Workloads.source(workload);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public TokenBuffer scanBuffer() {
+        return new Scanner(source).scanBuffer();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    // Tokens are built lazily and cached in the buffer, so this scans again
+    // to measure parsing a fresh one.
+    @Benchmark
+    public List<Stmt> scanAndParseBuffer() {
+        return new Parser(new Scanner(source).scanBuffer()).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> scanAndParse() {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,71 @@
+package mpp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs an already resolved workload on one of the execution backends: the
+ * tree-walking interpreter, the node tree or the bytecode VM. The program
+ * is prepared once per trial so only execution is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({ "fib", "loop", "dispatch", "strings", "lists" })
+    String workload;
+
+    @Param({ "tree", "nodes", "vm" })
+    String backend;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+    private Node[] nodes;
+    private VM vm;
+    private Chunk chunk;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = new Interpreter();
+        statements = Workloads.parse(Workloads.source(workload));
+        new Resolver().resolve(statements);
+        statements = new Optimizer().optimize(statements);
+
+        if (backend.equals("nodes")) {
+            nodes = new NodeCompiler(interpreter, false).compile(statements);
+        } else if (backend.equals("vm")) {
+            vm = new VM(interpreter);
+            chunk = new Compiler(interpreter, false).compile(statements);
+        } else {
+            new LoopOptimizer().optimize(statements);
+        }
+    }
+
+    @Benchmark
+    public Object interpret() {
+        if (nodes != null)
+            interpreter.interpret(nodes);
+        else if (vm != null)
+            vm.interpret(chunk);
+        else
+            interpreter.interpret(statements, false);
+
+        return interpreter.globals.get(Workloads.RESULT);
+    }
+}
@@ -0,0 +1,147 @@
+package mpp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs whole scripts end to end through {@link Minhpp#runFile}, each on a
+ * fresh interpreter, and prints one JSON object per script and backend:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar mpp.MacroBenchmark [--warmup n]
+ *         [--iterations n] [--backends tree,nodes,vm] [script or dir...]
+ * </pre>
+ *
+ * Without paths it runs every script in corpus/. Whatever the scripts print
+ * is discarded so stdout stays machine readable.
+ */
+public class MacroBenchmark {
+    private static final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private static final List<MemoryPoolMXBean> heap = new ArrayList<>();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                heap.add(pool);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int warmup = 5;
+        int iterations = 10;
+        List<String> backends = Arrays.asList("tree", "nodes", "vm");
+        List<File> scripts = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--backends") && i + 1 < args.length) {
+                backends = Arrays.asList(args[++i].split(","));
+            } else {
+                addScripts(new File(args[i]), scripts);
+            }
+        }
+
+        if (scripts.isEmpty())
+            addScripts(new File("corpus"), scripts);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (File script : scripts) {
+            for (String backend : backends)
+                out.println(measure(script, backend, warmup, iterations));
+        }
+    }
+
+    private static void addScripts(File path, List<File> scripts) {
+        if (!path.isDirectory()) {
+            scripts.add(path);
+            return;
+        }
+
+        File[] files = path.listFiles((dir, name) -> name.endsWith(".mpp"));
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        scripts.addAll(Arrays.asList(files));
+    }
+
+    private static String flag(String backend) {
+        switch (backend) {
+            case "tree":
+                return "";
+            case "nodes":
+                return "--nodes";
+            case "vm":
+                return "--vm";
+            default:
+                throw new IllegalArgumentException("Unknown backend '" + backend + "'.");
+        }
+    }
+
+    private static String measure(File script, String backend, int warmup, int iterations) throws IOException {
+        String flag = flag(backend);
+        String path = script.getPath();
+
+        for (int i = 0; i < warmup; i++) {
+            Minhpp.reset(flag);
+            Minhpp.runFile(path);
+        }
+
+        System.gc();
+        for (MemoryPoolMXBean pool : heap)
+            pool.resetPeakUsage();
+        long gcCount = -gcCount();
+        long gcTime = -gcTime();
+
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            Minhpp.reset(flag);
+            long start = System.nanoTime();
+            Minhpp.runFile(path);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            min = Math.min(min, elapsed);
+        }
+
+        gcCount += gcCount();
+        gcTime += gcTime();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap)
+            peak += pool.getPeakUsage().getUsed();
+
+        return String.format(Locale.ROOT,
+                "{\"script\":\"%s\",\"backend\":\"%s\",\"iterations\":%d,\"mean_ms\":%.3f,\"min_ms\":%.3f,"
+                        + "\"ops_per_sec\":%.3f,\"gc_count\":%d,\"gc_time_ms\":%d,\"peak_heap_bytes\":%d}",
+                script.getName(), backend, iterations, total / 1e6 / iterations, min / 1e6,
+                iterations / (total / 1e9), gcCount, gcTime, peak);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors)
+            count += Math.max(collector.getCollectionCount(), 0);
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : collectors)
+            time += Math.max(collector.getCollectionTime(), 0);
+        return time;
+    }
+}
@@ -0,0 +1,29 @@
+package mpp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The scripts under resources/workloads. Each one leaves its answer in the
+ * global `result` and prints nothing.
+ */
+final class Workloads {
+    static final Token RESULT = new Token(TokenType.IDENTIFIER, "result", null, 0);
+
+    private Workloads() {
+    }
+
+    static String source(String name) throws IOException {
+        try (InputStream in = Workloads.class.getResourceAsStream("/workloads/" + name + ".mpp")) {
+            if (in == null)
+                throw new IllegalArgumentException("Unknown workload '" + name + "'.");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
@@ -0,0 +1,52 @@
+package mpp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class Chunk {
+    // The function this chunk is the body of, null for top-level code.
+    final Stmt.Function function;
+    boolean isInitializer = false;
+    // What each upvalue of a closure over this chunk captures: a local slot
+    // of the enclosing frame, as slot << 1 | 1, or one of the enclosing
+    // closure's own upvalues, as index << 1.
+    int[] upvalues = new int[0];
+    byte[] code = new byte[0];
+    int[] lines = new int[0];
+    int count = 0;
+    Object[] constants = new Object[0];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    Chunk(Stmt.Function function) {
+        this.function = function;
+    }
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            int capacity = count < 8 ? 8 : count * 2;
+            code = Arrays.copyOf(code, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null)
+            return index;
+
+        if (constantCount == constants.length) {
+            int capacity = constantCount < 8 ? 8 : constantCount * 2;
+            constants = Arrays.copyOf(constants, capacity);
+        }
+
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+}
@@ -0,0 +1,33 @@
+package mpp;
+
+import java.util.List;
+
+/**
+ * A function whose body was compiled to bytecode and runs on the {@link VM}.
+ */
+class CompiledFunction extends MinhppFunction {
+    final Chunk chunk;
+    final VM.Upvalue[] upvalues;
+    private final VM vm;
+
+    CompiledFunction(VM vm, Chunk chunk, VM.Upvalue[] upvalues) {
+        this(vm, chunk, upvalues, null);
+    }
+
+    private CompiledFunction(VM vm, Chunk chunk, VM.Upvalue[] upvalues, MinhppInstance receiver) {
+        super(chunk.function, null, chunk.isInitializer, receiver);
+        this.vm = vm;
+        this.chunk = chunk;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public MinhppFunction bind(MinhppInstance mInstance) {
+        return new CompiledFunction(vm, chunk, upvalues, mInstance);
+    }
+
+    @Override
+    Object call(Interpreter interpreter, MinhppInstance receiver, List<Object> args) {
+        return vm.call(this, receiver, args);
+    }
+}
@@ -0,0 +1,806 @@
+package mpp;
+
+import static mpp.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mpp.Expr.Assign;
+import mpp.Expr.Binary;
+import mpp.Expr.Call;
+import mpp.Expr.Get;
+import mpp.Expr.Index;
+import mpp.Expr.Grouping;
+import mpp.Expr.Lambda;
+import mpp.Expr.Literal;
+import mpp.Expr.Logical;
+import mpp.Expr.MList;
+import mpp.Expr.Postfix;
+import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
+import mpp.Expr.Super;
+import mpp.Expr.Ternary;
+import mpp.Expr.This;
+import mpp.Expr.Unary;
+import mpp.Expr.Variable;
+import mpp.Stmt.Block;
+import mpp.Stmt.Break;
+import mpp.Stmt.Class;
+import mpp.Stmt.Continue;
+import mpp.Stmt.Expression;
+import mpp.Stmt.Function;
+import mpp.Stmt.If;
+import mpp.Stmt.Loop;
+import mpp.Stmt.Return;
+import mpp.Stmt.Var;
+
+/**
+ * Compiles a resolved AST into a {@link Chunk} for the {@link VM}.
+ *
+ * Locals live on the VM's value stack, in a window starting at the frame's
+ * base: the receiver or callee in slot 0, then the parameters, then every
+ * local in declaration order. The compiler tracks that layout itself and
+ * addresses locals by slot. A local a nested function refers to is captured
+ * as an upvalue, which follows it onto the heap when it goes out of scope,
+ * so blocks never need an environment of their own. Only globals are looked
+ * up by name.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private class LoopState {
+        final LoopState enclosing;
+        final int scopeDepth;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        LoopState(LoopState enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class Local {
+        // Null for slots that can't be named, like slot 0 of a plain function.
+        Symbol name;
+        final int depth;
+        boolean captured = false;
+
+        Local(Symbol name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    // The function being compiled, with its stack layout and the upvalues it
+    // closes over.
+    private class FunctionState {
+        final FunctionState enclosing;
+        final Chunk chunk;
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        LoopState loop = null;
+
+        FunctionState(FunctionState enclosing, Chunk chunk, Symbol receiver) {
+            this.enclosing = enclosing;
+            this.chunk = chunk;
+            locals.add(new Local(receiver, 0));
+        }
+    }
+
+    private static final Symbol THIS = Symbol.of("this");
+    private static final Symbol SUPER = Symbol.of("super");
+
+    private final Interpreter interpreter;
+    private final boolean cmd;
+    private FunctionState current;
+    private int line = 1;
+
+    Compiler(Interpreter interpreter, boolean cmd) {
+        this.interpreter = interpreter;
+        this.cmd = cmd;
+    }
+
+    Chunk compile(List<Stmt> stmts) {
+        current = new FunctionState(null, new Chunk(null), null);
+        for (Stmt stmt : stmts)
+            compile(stmt);
+
+        emit(OP_NIL);
+        emit(OP_RETURN);
+        return current.chunk;
+    }
+
+    // Methods, getters and statics get their receiver as `this` in slot 0.
+    private Chunk function(Function function, boolean method, boolean initializer) {
+        Chunk chunk = new Chunk(function);
+        chunk.isInitializer = initializer;
+        current = new FunctionState(current, chunk, method ? THIS : null);
+
+        if (function.params != null) {
+            for (Token param : function.params)
+                addLocal(param.symbol());
+        }
+        for (Stmt stmt : function.body)
+            compile(stmt);
+
+        emit(OP_NIL);
+        emit(OP_RETURN);
+
+        chunk.upvalues = new int[current.upvalues.size()];
+        for (int i = 0; i < chunk.upvalues.length; ++i)
+            chunk.upvalues[i] = current.upvalues.get(i);
+        current = current.enclosing;
+        return chunk;
+    }
+
+    // Whether declarations here are globals rather than locals of a frame.
+    private boolean global() {
+        return current.enclosing == null && current.scopeDepth == 0;
+    }
+
+    private void addLocal(Symbol name) {
+        if (current.locals.size() > 0xffff) {
+            Minhpp.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.remove(locals.size() - 1).captured ? OP_CLOSE_UPVALUE : OP_POP);
+        }
+    }
+
+    // Drops the locals deeper than `depth` on a jump out of their scope,
+    // leaving them declared for the code that follows the jump.
+    private void discardLocals(int depth) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > depth; --i)
+            emit(locals.get(i).captured ? OP_CLOSE_UPVALUE : OP_POP);
+    }
+
+    private static int resolveLocal(FunctionState function, Symbol name) {
+        for (int i = function.locals.size() - 1; i >= 0; --i) {
+            if (function.locals.get(i).name == name)
+                return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState function, Symbol name) {
+        if (function.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(function.enclosing, name);
+        if (local >= 0) {
+            function.enclosing.locals.get(local).captured = true;
+            return addUpvalue(function, local << 1 | 1);
+        }
+
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        if (upvalue >= 0)
+            return addUpvalue(function, upvalue << 1);
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState function, int upvalue) {
+        int index = function.upvalues.indexOf(upvalue);
+        if (index >= 0)
+            return index;
+
+        function.upvalues.add(upvalue);
+        return function.upvalues.size() - 1;
+    }
+
+    @Override
+    public Void visitBlock(Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitLoop(Loop stmt) {
+        LoopState state = new LoopState(current.loop, current.scopeDepth);
+        current.loop = state;
+
+        int start = current.chunk.count;
+        compile(stmt.condition);
+        int exit = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP);
+        compile(stmt.whileStmt);
+
+        for (int jump : state.continues)
+            patchJump(jump);
+        if (stmt.increment != null)
+            compile(stmt.increment);
+        emitLoop(start);
+
+        patchJump(exit);
+        emit(OP_POP);
+        for (int jump : state.breaks)
+            patchJump(jump);
+
+        current.loop = state.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP);
+        compile(stmt.trueStmt);
+
+        int endJump = emitJump(OP_JUMP);
+        patchJump(elseJump);
+        emit(OP_POP);
+        if (stmt.falseStmt != null)
+            compile(stmt.falseStmt);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitClass(Class stmt) {
+        // A local class gets its slot before its methods are compiled, so
+        // they can refer to it.
+        line = stmt.name.line;
+        boolean global = global();
+        int slot = current.locals.size();
+        if (!global) {
+            emit(OP_NIL);
+            addLocal(stmt.name.symbol());
+        }
+
+        // `super` is the superclass in methods and the superclass's own
+        // class in statics. Both sit on the stack as locals of a scope
+        // around the class, only one of them named at a time.
+        Local superclass = null;
+        Local metaclass = null;
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            line = stmt.superclass.name.line;
+            emit(OP_SUPERCLASS);
+
+            beginScope();
+            addLocal(null);
+            addLocal(SUPER);
+            superclass = current.locals.get(current.locals.size() - 2);
+            metaclass = current.locals.get(current.locals.size() - 1);
+        }
+
+        for (Function method : stmt.statics)
+            closure(function(method, true, false));
+
+        if (superclass != null) {
+            metaclass.name = null;
+            superclass.name = SUPER;
+        }
+        for (Function method : stmt.methods)
+            closure(function(method, true, method.name.lexeme.equals(stmt.name.lexeme)));
+
+        line = stmt.superclass != null ? stmt.superclass.name.line : stmt.name.line;
+        emit(OP_CLASS);
+        emitShort(makeConstant(stmt.name));
+        emitShort(stmt.superclass != null ? 1 : 0);
+        emitShort(stmt.statics.size());
+        emitShort(stmt.methods.size());
+
+        line = stmt.name.line;
+        if (global) {
+            emit(OP_DEFINE);
+            emitShort(makeConstant(stmt.name));
+        } else {
+            emit(OP_SET_LOCAL);
+            emitShort(slot);
+            emit(OP_POP);
+        }
+
+        if (stmt.superclass != null)
+            endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var stmt) {
+        if (stmt.initializer != null)
+            compile(stmt.initializer);
+        else
+            emit(OP_NIL);
+
+        line = stmt.name.line;
+        define(stmt.name);
+        return null;
+    }
+
+    // The value on top of the stack becomes the variable: a global by name,
+    // or a local in the slot it already occupies.
+    private void define(Token name) {
+        if (global()) {
+            emit(OP_DEFINE);
+            emitShort(makeConstant(name));
+        } else {
+            addLocal(name.symbol());
+        }
+    }
+
+    @Override
+    public Void visitExpression(Expression stmt) {
+        compile(stmt.expression);
+        emit(cmd ? OP_ECHO : OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break stmt) {
+        line = stmt.name.line;
+        if (current.loop == null) {
+            Minhpp.error(stmt.name, "Can't break out of a function.");
+            return null;
+        }
+
+        discardLocals(current.loop.scopeDepth);
+        current.loop.breaks.add(emitJump(OP_JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue stmt) {
+        line = stmt.name.line;
+        if (current.loop == null) {
+            Minhpp.error(stmt.name, "Can't continue out of a function.");
+            return null;
+        }
+
+        discardLocals(current.loop.scopeDepth);
+        current.loop.continues.add(emitJump(OP_JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return stmt) {
+        if (stmt.value != null)
+            compile(stmt.value);
+        else
+            emit(OP_NIL);
+
+        line = stmt.name.line;
+        emit(OP_RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function stmt) {
+        // Declared first, so the body can call itself through an upvalue.
+        boolean global = global();
+        if (!global)
+            addLocal(stmt.name.symbol());
+        Chunk function = function(stmt, false, false);
+
+        line = stmt.name.line;
+        closure(function);
+        if (global) {
+            emit(OP_DEFINE);
+            emitShort(makeConstant(stmt.name));
+        }
+        return null;
+    }
+
+    private void closure(Chunk function) {
+        emit(OP_CLOSURE);
+        emitShort(makeConstant(function));
+    }
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        if (expr.operator.type == TokenType.COMMA) {
+            compile(expr.left);
+            emit(OP_POP);
+            compile(expr.right);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case PLUS:
+                emit(OP_ADD);
+                break;
+            case MINUS:
+                emit(OP_SUBTRACT);
+                break;
+            case STAR:
+                emit(OP_MULTIPLY);
+                break;
+            case SLASH:
+                emit(OP_DIVIDE);
+                break;
+            case PERCEN:
+                emit(OP_MODULO);
+                break;
+            case EQUAL_EQUAL:
+                emit(OP_EQUAL);
+                break;
+            case BANG_EQUAL:
+                emit(OP_NOT_EQUAL);
+                break;
+            case LESS:
+                emit(OP_LESS);
+                break;
+            case LESS_EQUAL:
+                emit(OP_LESS_EQUAL);
+                break;
+            case GREATER:
+                emit(OP_GREATER);
+                break;
+            case GREATER_EQUAL:
+                emit(OP_GREATER_EQUAL);
+                break;
+            default:
+                // Mirrors Interpreter.visitBinary, which yields nil here.
+                emit(OP_POP);
+                emit(OP_POP);
+                emit(OP_NIL);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMList(MList expr) {
+        for (Expr init : expr.init)
+            compile(init);
+
+        emit(OP_LIST);
+        emitShort(expr.init.size());
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign expr) {
+        compile(expr.value);
+        storeVariable(expr.depth, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Ternary expr) {
+        compile(expr.condition);
+        int elseJump = emitJump(OP_JUMP_IF_FALSE);
+        emit(OP_POP);
+        compile(expr.trueExpr);
+
+        int endJump = emitJump(OP_JUMP);
+        patchJump(elseJump);
+        emit(OP_POP);
+        compile(expr.falseExpr);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OP_JUMP_IF_FALSE);
+            int endJump = emitJump(OP_JUMP);
+            patchJump(elseJump);
+            emit(OP_POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OP_JUMP_IF_FALSE);
+            emit(OP_POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        closure(function(expr.function, false, false));
+        return null;
+    }
+
+    @Override
+    public Void visitSuper(Super expr) {
+        loadVariable(expr.depth, THIS, expr.keyword);
+        loadVariable(expr.depth, SUPER, expr.keyword);
+
+        line = expr.method.line;
+        emit(OP_GET_SUPER);
+        emitShort(makeConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGet(Get expr) {
+        compile(expr.object);
+
+        line = expr.name.line;
+        emit(OP_GET_PROPERTY);
+        emitShort(makeConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSet(Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+
+        line = expr.name.line;
+        emit(OP_SET_PROPERTY);
+        emitShort(makeConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+
+        line = expr.bracket.line;
+        emit(OP_GET_INDEX);
+        emitShort(makeConstant(expr.bracket));
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndex(SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+
+        line = expr.bracket.line;
+        emit(OP_SET_INDEX);
+        emitShort(makeConstant(expr.bracket));
+        return null;
+    }
+
+    @Override
+    public Void visitThis(This expr) {
+        loadVariable(expr.depth, THIS, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        if (expr.value == null) {
+            emit(OP_NIL);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? OP_TRUE : OP_FALSE);
+        } else {
+            emit(OP_CONSTANT);
+            emitShort(makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPostfix(Postfix expr) {
+        increment(expr.operator, expr.left, false);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call expr) {
+        // A method call leaves the receiver and the unbound method on the
+        // stack, so the VM can run it without binding.
+        Token name = null;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            name = get.name;
+            compile(get.object);
+
+            line = name.line;
+            emit(OP_GET_METHOD);
+            emitShort(makeConstant(name));
+            emitShort(makeConstant(new PropertyCache()));
+        } else if (expr.callee instanceof Super) {
+            Super superExpr = (Super) expr.callee;
+            name = superExpr.method;
+            loadVariable(superExpr.depth, THIS, superExpr.keyword);
+            loadVariable(superExpr.depth, SUPER, superExpr.keyword);
+
+            line = name.line;
+            emit(OP_GET_SUPER_METHOD);
+            emitShort(makeConstant(name));
+        } else {
+            compile(expr.callee);
+        }
+
+        for (Expr arg : expr.arguments)
+            compile(arg);
+
+        line = expr.paren.line;
+        if (name == null) {
+            emit(OP_CALL);
+            emitShort(expr.arguments.size());
+        } else {
+            emit(OP_INVOKE);
+            emitShort(expr.arguments.size());
+            emitShort(makeConstant(name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable expr) {
+        loadVariable(expr.depth, expr.name.symbol(), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        switch (expr.operator.type) {
+            case MINUS_MINUS:
+            case PLUS_PLUS:
+                increment(expr.operator, expr.right, true);
+                return null;
+            default:
+                break;
+        }
+
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS:
+                emit(OP_NEGATE);
+                break;
+            case BANG:
+                emit(OP_NOT);
+                break;
+            default:
+                emit(OP_POP);
+                emit(OP_NIL);
+                break;
+        }
+        return null;
+    }
+
+    // Leaves the new value on the stack for prefix operators and the old one
+    // for postfix operators, exactly like the tree-walking interpreter.
+    private void increment(Token operator, Expr target, boolean prefix) {
+        compile(target);
+        if (!prefix)
+            emit(OP_DUP);
+
+        line = operator.line;
+        emit(operator.type == TokenType.PLUS_PLUS ? OP_INCREMENT : OP_DECREMENT);
+
+        if (target instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) target;
+            storeVariable(variable.depth, variable.name);
+        } else {
+            Expr.Get get = (Expr.Get) target;
+            compile(get.object);
+            emit(OP_SWAP);
+
+            line = get.name.line;
+            emit(OP_SET_PROPERTY);
+            emitShort(makeConstant(get.name));
+        }
+
+        if (!prefix)
+            emit(OP_POP);
+    }
+
+    // The resolver leaves depth -1 on globals; anything else is a local of
+    // this function or one it is nested in.
+    private void loadVariable(int depth, Symbol name, Token token) {
+        line = token.line;
+        if (depth >= 0) {
+            int slot = resolveLocal(current, name);
+            if (slot >= 0) {
+                emit(OP_GET_LOCAL);
+                emitShort(slot);
+                return;
+            }
+
+            int upvalue = resolveUpvalue(current, name);
+            if (upvalue >= 0) {
+                emit(OP_GET_UPVALUE);
+                emitShort(upvalue);
+                return;
+            }
+        }
+
+        emit(OP_GET_GLOBAL);
+        emitShort(makeConstant(token));
+    }
+
+    private void storeVariable(int depth, Token name) {
+        line = name.line;
+        if (depth >= 0) {
+            int slot = resolveLocal(current, name.symbol());
+            if (slot >= 0) {
+                emit(OP_SET_LOCAL);
+                emitShort(slot);
+                return;
+            }
+
+            int upvalue = resolveUpvalue(current, name.symbol());
+            if (upvalue >= 0) {
+                emit(OP_SET_UPVALUE);
+                emitShort(upvalue);
+                return;
+            }
+        }
+
+        emit(OP_SET_GLOBAL);
+        emitShort(makeConstant(name));
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(int b) {
+        current.chunk.write(b, line);
+    }
+
+    private void emitShort(int value) {
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emit(0xff);
+        emit(0xff);
+        return current.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.chunk;
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff)
+            Minhpp.error(line, "Too much code to jump over.");
+
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int start) {
+        emit(OP_LOOP);
+
+        int offset = current.chunk.count - start + 2;
+        if (offset > 0xffff)
+            Minhpp.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.chunk.addConstant(value);
+        if (index > 0xffff) {
+            Minhpp.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+}
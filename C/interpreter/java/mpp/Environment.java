@@ -1,54 +1,131 @@
 package mpp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object[] EMPTY = new Object[0];
+
+    // Marks a slot whose value lives unboxed in `numbers`.
+    static final Object UNBOXED = new Object();
+    // Marks a global that was never defined.
+    private static final Object UNDEFINED = new Object();
+
+    // Only the global environment is addressed by name, through `values`
+    // indexed by Symbol.global(). Every local scope stores its values in
+    // declaration order and is addressed by slot.
+    private Object[] values;
+    private Object[] slots = EMPTY;
+    private double[] numbers;
+    private int count = 0;
     final Environment enclosing;
 
     public Environment() {
         enclosing = null;
+        values = EMPTY;
     }
 
     public Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.values = null;
     }
 
     public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null)
+        if (values == null)
             return enclosing.get(name);
 
+        int index = name.symbol().global();
+        if (index >= 0 && index < values.length && values[index] != UNDEFINED)
+            return values[index];
+
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     public void define(String name, Object value) {
-        values.put(name, value);
+        if (values != null) {
+            defineGlobal(Symbol.of(name), value);
+            return;
+        }
+
+        if (count == slots.length) {
+            int capacity = count < 8 ? 8 : count * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            if (numbers != null)
+                numbers = Arrays.copyOf(numbers, capacity);
+        }
+        slots[count++] = value;
     }
 
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        if (values == null) {
+            enclosing.assign(name, value);
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        int index = name.symbol().global();
+        if (index >= 0 && index < values.length && values[index] != UNDEFINED) {
+            values[index] = value;
             return;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    public Object getAt(Integer distance, String lexeme) {
-        return ancestor(distance).values.get(lexeme);
+    public void defineNumber(String name, double value) {
+        if (values != null) {
+            defineGlobal(Symbol.of(name), value);
+            return;
+        }
+
+        define(name, UNBOXED);
+        numbers()[count - 1] = value;
     }
 
-    private Environment ancestor(Integer distance) {
+    private void defineGlobal(Symbol name, Object value) {
+        int index = name.numberGlobal();
+        if (index >= values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(index + 1, length * 2));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+        values[index] = value;
+    }
+
+    public Object getAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == UNBOXED)
+            return environment.numbers[slot];
+        return value;
+    }
+
+    double getNumberAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == UNBOXED)
+            return environment.numbers[slot];
+        return Node.expectDouble(value);
+    }
+
+    Object getRaw(int slot) {
+        return slots[slot];
+    }
+
+    double getNumber(int slot) {
+        return numbers[slot];
+    }
+
+    void setNumber(int slot, double value) {
+        numbers()[slot] = value;
+        slots[slot] = UNBOXED;
+    }
+
+    private double[] numbers() {
+        if (numbers == null || numbers.length < slots.length)
+            numbers = numbers == null ? new double[slots.length] : Arrays.copyOf(numbers, slots.length);
+        return numbers;
+    }
+
+    Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; ++i) {
             environment = environment.enclosing;
@@ -56,7 +133,13 @@ public class Environment {
         return environment;
     }
 
-    public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    public void assignNumberAt(int distance, int slot, double value) {
+        Environment environment = ancestor(distance);
+        environment.numbers()[slot] = value;
+        environment.slots[slot] = UNBOXED;
     }
 }
@@ -0,0 +1,104 @@
+package mpp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for scripts, shown under "Minhpp" next to the JVM's
+ * own events in any recording, e.g. one started with
+ * {@code jcmd <pid> JFR.start}. Each event is only allocated once a check
+ * of its type says a recording has it enabled, so when none does the
+ * interpreter pays a single branch per call site.
+ *
+ * Function calls below 1 ms are left out by default; record every call
+ * with the setting {@code mpp.FunctionCall#threshold=0 ms}.
+ */
+final class Events {
+    private Events() {
+    }
+
+    @Name("mpp.FunctionCall")
+    @Label("Function Call")
+    @Category("Minhpp")
+    @Description("A script function or method ran from entry to return.")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class FunctionCall extends Event {
+        private static final EventType TYPE = EventType.getEventType(FunctionCall.class);
+
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+
+        // Returns the running event, or null if it isn't being recorded.
+        static FunctionCall start(Stmt.Function function) {
+            if (!TYPE.isEnabled())
+                return null;
+
+            FunctionCall event = new FunctionCall();
+            event.function = function.name == null ? "<lambda>" : function.name.lexeme;
+            event.line = function.name == null ? 0 : function.name.line;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Name("mpp.Instantiation")
+    @Label("Class Instantiation")
+    @Category("Minhpp")
+    @Description("A script class was called to create an instance.")
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+        private static final EventType TYPE = EventType.getEventType(Instantiation.class);
+
+        @Label("Class")
+        String className;
+
+        @Label("Line")
+        int line;
+
+        static void emit(MinhppClass mClass) {
+            if (!TYPE.isEnabled())
+                return;
+
+            Instantiation event = new Instantiation();
+            event.className = mClass.name;
+            if (mClass.initializer != null)
+                event.line = mClass.initializer.function.name.line;
+            event.commit();
+        }
+    }
+
+    @Name("mpp.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Minhpp")
+    @Description("A script raised a runtime error.")
+    @StackTrace(false)
+    static final class RuntimeError extends Event {
+        private static final EventType TYPE = EventType.getEventType(RuntimeError.class);
+
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+
+        static void emit(String message, int line) {
+            if (!TYPE.isEnabled())
+                return;
+
+            RuntimeError event = new RuntimeError();
+            event.message = message;
+            event.line = line;
+            event.commit();
+        }
+    }
+}
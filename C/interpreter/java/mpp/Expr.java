@@ -14,6 +14,8 @@ public abstract class Expr {
         T visitGrouping(Grouping expr);
         T visitGet(Get expr);
         T visitSet(Set expr);
+        T visitIndex(Index expr);
+        T visitSetIndex(SetIndex expr);
         T visitThis(This expr);
         T visitLiteral(Literal expr);
         T visitPostfix(Postfix expr);
@@ -28,6 +30,8 @@ public abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        Stmt.Loop invariantIn;
+        int invariantIndex;
         public Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -55,6 +59,8 @@ public abstract class Expr {
     public static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
         public Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -113,6 +119,8 @@ public abstract class Expr {
     public static class Super extends Expr {
         final Token keyword;
         final Token method;
+        int depth = -1;
+        int slot;
         public Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
@@ -139,6 +147,7 @@ public abstract class Expr {
     public static class Get extends Expr {
         final Expr object;
         final Token name;
+        final PropertyCache cache = new PropertyCache();
         public Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
@@ -154,6 +163,7 @@ public abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        final PropertyCache cache = new PropertyCache();
         public Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -166,8 +176,44 @@ public abstract class Expr {
         }
     }
 
+    public static class Index extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        public Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitIndex(this);
+        }
+    }
+
+    public static class SetIndex extends Expr {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+        public SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSetIndex(this);
+        }
+    }
+
     public static class This extends Expr {
         final Token keyword;
+        int depth = -1;
+        int slot;
         public This(Token keyword) {
             this.keyword = keyword;
         }
@@ -208,6 +254,7 @@ public abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        boolean tail;
         public Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
@@ -222,6 +269,8 @@ public abstract class Expr {
 
     public static class Variable extends Expr {
         final Token name;
+        int depth = -1;
+        int slot;
         public Variable(Token name) {
             this.name = name;
         }
@@ -12,6 +12,7 @@ import mpp.Expr.Assign;
 import mpp.Expr.Binary;
 import mpp.Expr.Call;
 import mpp.Expr.Get;
+import mpp.Expr.Index;
 import mpp.Expr.Grouping;
 import mpp.Expr.Lambda;
 import mpp.Expr.Literal;
@@ -19,6 +20,7 @@ import mpp.Expr.Logical;
 import mpp.Expr.MList;
 import mpp.Expr.Postfix;
 import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
 import mpp.Expr.Super;
 import mpp.Expr.Ternary;
 import mpp.Expr.This;
@@ -29,16 +31,51 @@ import mpp.Stmt.Function;
 import mpp.Stmt.If;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final class Break extends RuntimeException {
-    }
-
-    final class Continue extends RuntimeException {
-    }
+    // How the last statement completed. Blocks, loops and calls check this
+    // instead of unwinding break, continue and return as exceptions.
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int CONTINUE = 2;
+    static final int RETURN = 3;
+
+    // Stands in for a number whose value is held unboxed in `number`.
+    private static final Object UNBOXED = Environment.UNBOXED;
+    // What a call in tail position evaluates to instead of running. The
+    // function returning it then runs the call it describes in its place.
+    static final Object TAIL_CALL = new Object();
 
     final Environment globals = new Environment();
     private Environment environment = globals;
+    private double number;
+    private int completion = NORMAL;
+    private Object returnValue;
+    // The pending call behind the last TAIL_CALL.
+    MinhppFunction tailFunction;
+    MinhppInstance tailReceiver;
+    List<Object> tailArguments;
+    // The invariant values of the loops being run, innermost first.
+    private Hoisted hoisted;
     private boolean cmd;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Set when running with --profile.
+    Profiler profiler;
+
+    // What one run of a loop has worked out of the expressions the loop
+    // optimizer marked invariant in it, by their invariantIndex.
+    private static final class Hoisted {
+        final Stmt.Loop loop;
+        final Hoisted enclosing;
+        final boolean[] done;
+        final Object[] values;
+        final double[] numbers;
+
+        Hoisted(Stmt.Loop loop, Hoisted enclosing) {
+            this.loop = loop;
+            this.enclosing = enclosing;
+            this.done = new boolean[loop.invariants];
+            this.values = new Object[loop.invariants];
+            this.numbers = new double[loop.invariants];
+        }
+    }
 
     public Interpreter() {
         globals.define("clock", new MinhppCallable() {
@@ -115,10 +152,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
     public void interpret(List<Stmt> stmts, boolean cmd) {
         this.cmd = cmd;
 
@@ -131,58 +164,73 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    public void interpret(Node[] program) {
+        try {
+            for (Node node : program) {
+                node.execute(globals);
+            }
+        } catch (RuntimeError error) {
+            Minhpp.runtimeError(error);
+        }
+    }
+
     @Override
     public Object visitBinary(Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        if (expr.invariantIn != null)
+            return invariant(expr);
+
+        Object left = evaluateUnboxed(expr.left);
+        double a = number;
+        Object right = evaluateUnboxed(expr.right);
+        double b = number;
 
         switch (expr.operator.type) {
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left + (double) right;
+                if (left == UNBOXED && right == UNBOXED)
+                    return number(a + b);
 
-                if (left instanceof String || right instanceof String)
-                    return stringify(left) + stringify(right);
+                if (Rope.isString(left) || Rope.isString(right))
+                    return Rope.concat(box(left, a), box(right, b));
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                return number(a - b);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                return number(a * b);
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
 
-                if ((double) right == 0)
+                if (b == 0)
                     throw new RuntimeError(expr.operator, "Division by 0.");
 
-                return (double) left / (double) right;
+                return number(a / b);
             case PERCEN:
                 checkNumberOperands(expr.operator, left, right);
 
-                if ((double) right == 0)
+                if (b == 0)
                     throw new RuntimeError(expr.operator, "Division by 0.");
 
-                return (double) left % (double) right;
+                return number(a % b);
             case COMMA:
-                return right;
+                return right == UNBOXED ? number(b) : right;
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return isEqual(left, a, right, b);
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !isEqual(left, a, right, b);
             case LESS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                return a < b;
             case LESS_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return a <= b;
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                return a > b;
             case GREATER_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return a >= b;
             default:
                 break;
         }
@@ -190,6 +238,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Invariant in its loop, so only worked out once each time the loop
+    // runs. The operator itself is done by visitBinary with the mark taken
+    // off, which keeps the usual path to a single Java frame.
+    private Object invariant(Binary expr) {
+        Stmt.Loop loop = expr.invariantIn;
+        Hoisted hoisted = this.hoisted;
+        while (hoisted.loop != loop)
+            hoisted = hoisted.enclosing;
+
+        int index = expr.invariantIndex;
+        if (hoisted.done[index]) {
+            number = hoisted.numbers[index];
+            return hoisted.values[index];
+        }
+
+        Object value;
+        expr.invariantIn = null;
+        try {
+            value = visitBinary(expr);
+        } finally {
+            expr.invariantIn = loop;
+        }
+        hoisted.values[index] = value;
+        hoisted.numbers[index] = number;
+        hoisted.done[index] = true;
+        return value;
+    }
+
     @Override
     public Object visitTernary(Ternary expr) {
         Object condition = evaluate(expr.condition);
@@ -213,73 +289,53 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnary(Unary expr) {
-        Object right = expr.right.accept(this);
-
         switch (expr.operator.type) {
             case MINUS:
-                checkNumberOperands(expr.operator, right);
-                return -(double) right;
+                checkNumberOperand(expr.operator, evaluateUnboxed(expr.right));
+                return number(-number);
             case BANG:
-                return !isTruthy(right);
+                return !isTruthy(evaluate(expr.right));
             case MINUS_MINUS:
-                checkNumberOperands(expr.operator, right);
-                if (expr.right instanceof Expr.Variable) {
-                    Token name = ((Expr.Variable) expr.right).name;
-
-                    Integer distance = locals.get(expr.right);
-                    if (distance != null) {
-                        environment.assignAt(distance, name, (double) right - 1);
-                    } else {
-                        globals.assign(name, (double) right - 1);
-                    }
-                } else if (expr.right instanceof Expr.Get) {
-                    Expr.Get instance = (Expr.Get) expr.right;
-                    Object object = evaluate(instance.object);
-
-                    if (!(object instanceof MinhppInstance)) {
-                        throw new RuntimeError(instance.name, "Only instances have property.");
-                    }
-
-                    ((MinhppInstance) object).set(instance.name, (double) right - 1);
-                }
-
-                return (double) right - 1;
+                return increment(expr.operator, expr.right, -1, true);
             case PLUS_PLUS:
-                checkNumberOperands(expr.operator, right);
-
-                if (expr.right instanceof Expr.Variable) {
-                    Token name = ((Expr.Variable) expr.right).name;
-
-                    Integer distance = locals.get(expr.right);
-                    if (distance != null) {
-                        environment.assignAt(distance, name, (double) right + 1);
-                    } else {
-                        globals.assign(name, (double) right + 1);
-                    }
-                } else if (expr.right instanceof Expr.Get) {
-                    Expr.Get instance = (Expr.Get) expr.right;
-                    Object object = evaluate(instance.object);
-
-                    if (!(object instanceof MinhppInstance)) {
-                        throw new RuntimeError(instance.name, "Only instances have property.");
-                    }
-
-                    ((MinhppInstance) object).set(instance.name, (double) right + 1);
-                }
-
-                return (double) right + 1;
+                return increment(expr.operator, expr.right, 1, true);
             default:
                 break;
         }
 
+        evaluate(expr.right);
         return null;
     }
 
+    // Shared by prefix and postfix ++/--: yields the new value for prefix
+    // operators and the old one for postfix operators.
+    private Object increment(Token operator, Expr target, double delta, boolean prefix) {
+        checkNumberOperand(operator, evaluateUnboxed(target));
+        double old = number;
+        double result = old + delta;
+
+        if (target instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) target;
+            assignNumber(variable.depth, variable.slot, variable.name, result);
+        } else if (target instanceof Expr.Get) {
+            Expr.Get instance = (Expr.Get) target;
+            Object object = evaluate(instance.object);
+
+            if (!(object instanceof MinhppInstance)) {
+                throw new RuntimeError(instance.name, "Only instances have property.");
+            }
+
+            ((MinhppInstance) object).set(instance.name, result);
+        }
+
+        return number(prefix ? result : old);
+    }
+
     @Override
     public Void visitExpression(Stmt.Expression stmt) {
         Object value = evaluate(stmt.expression);
         if (cmd)
-            System.out.println(stringify(value));
+            System.out.println(stringify(box(value, number)));
         return null;
     }
 
@@ -288,32 +344,52 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
 
         if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
+            value = evaluateUnboxed(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        if (value == UNBOXED)
+            environment.defineNumber(stmt.name.lexeme, number);
+        else
+            environment.define(stmt.name.lexeme, value);
         return null;
     }
 
     @Override
     public Object visitVariable(Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return variable(expr.depth, expr.slot, expr.name);
     }
 
     @Override
     public Object visitAssign(Assign expr) {
-        Object value = evaluate(expr.value);
+        Object value = evaluateUnboxed(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
+        if (value == UNBOXED) {
+            double result = number;
+            assignNumber(expr.depth, expr.slot, expr.name, result);
+            return number(result);
         }
 
+        assignVariable(expr.depth, expr.slot, expr.name, value);
         return value;
     }
 
+    // A depth of -1 means the resolver left the name to the globals.
+    private void assignVariable(int depth, int slot, Token name, Object value) {
+        if (depth >= 0) {
+            environment.assignAt(depth, slot, value);
+        } else {
+            globals.assign(name, value);
+        }
+    }
+
+    private void assignNumber(int depth, int slot, Token name, double value) {
+        if (depth >= 0) {
+            environment.assignNumberAt(depth, slot, value);
+        } else {
+            globals.assign(name, value);
+        }
+    }
+
     @Override
     public Void visitBlock(Stmt.Block stmt) {
         executeBlock(stmt.statements, new Environment(environment));
@@ -328,9 +404,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             for (Stmt stmt : stmts) {
                 execute(stmt);
+                if (completion != NORMAL)
+                    break;
             }
-        } catch (Break | Continue bc) {
-            throw bc;
         } finally {
             environment = prevEnv;
         }
@@ -363,39 +439,132 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLoop(Stmt.Loop stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            try {
+        Hoisted enclosing = hoisted;
+        if (stmt.invariants > 0)
+            hoisted = new Hoisted(stmt, enclosing);
+
+        try {
+            if (stmt.counter != null && countedLoop(stmt))
+                return null;
+
+            while (isTruthy(evaluate(stmt.condition))) {
                 execute(stmt.whileStmt);
-                if (stmt.increment != null)
-                    execute(stmt.increment);
-            } catch (Break b) {
-                break;
-            } catch (Continue c) {
+
+                if (completion == BREAK) {
+                    completion = NORMAL;
+                    break;
+                } else if (completion == CONTINUE) {
+                    completion = NORMAL;
+                } else if (completion == RETURN) {
+                    break;
+                }
+
                 if (stmt.increment != null)
                     execute(stmt.increment);
             }
+        } finally {
+            hoisted = enclosing;
         }
 
         return null;
     }
 
+    // Runs a loop the loop optimizer found to count a local against an
+    // invariant bound, stepping the counter as a double instead of going
+    // through the condition and increment. Returns false without running
+    // anything if the counter or bound isn't a number, leaving the usual
+    // loop to report it.
+    private boolean countedLoop(Stmt.Loop stmt) {
+        Binary test = (Binary) stmt.condition;
+        Environment scope = environment.ancestor(stmt.counter.depth);
+        int slot = stmt.counter.slot;
+        if (scope.getRaw(slot) != UNBOXED || evaluateUnboxed(test.right) != UNBOXED)
+            return false;
+
+        double bound = number;
+        TokenType operator = test.operator.type;
+        for (double i = scope.getNumber(slot); compare(operator, i, bound); i += stmt.step) {
+            execute(stmt.whileStmt);
+
+            if (completion == BREAK) {
+                completion = NORMAL;
+                break;
+            } else if (completion == CONTINUE) {
+                completion = NORMAL;
+            } else if (completion == RETURN) {
+                break;
+            }
+
+            scope.setNumber(slot, i + stmt.step);
+        }
+
+        return true;
+    }
+
+    private static boolean compare(TokenType operator, double a, double b) {
+        switch (operator) {
+            case LESS:
+                return a < b;
+            case LESS_EQUAL:
+                return a <= b;
+            case GREATER:
+                return a > b;
+            default:
+                return a >= b;
+        }
+    }
+
     @Override
     public Void visitBreak(Stmt.Break stmt) {
-        throw new Break();
+        completion = BREAK;
+        return null;
     }
 
     @Override
     public Void visitContinue(Stmt.Continue stmt) {
-        throw new Continue();
+        completion = CONTINUE;
+        return null;
     }
 
     @Override
     public Object visitCall(Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        MinhppInstance receiver = null;
+
+        // obj.method(...) and super.method(...) run the method on the
+        // receiver directly instead of first materializing a bound method.
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            MinhppInstance instance = instance(get);
+            MinhppFunction method = get.cache.method(instance, get.name);
+
+            if (method != null && method.arity() != -1) {
+                callee = method;
+                receiver = instance;
+            } else {
+                MinhppList.Method nativeMethod = get.cache.listMethod(instance, get.name);
+                if (nativeMethod != null)
+                    return callNative((MinhppList) instance, get.name, nativeMethod, expr);
+                callee = property(get, instance);
+            }
+        } else if (expr.callee instanceof Super) {
+            Super superExpr = (Super) expr.callee;
+            MinhppFunction method = superMethod(superExpr);
+            MinhppInstance instance = superReceiver(superExpr);
+
+            if (method.arity() != -1) {
+                callee = method;
+                receiver = instance;
+            } else {
+                callee = method.call(this, instance, null);
+            }
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr arg : expr.arguments) {
-            arguments.add(evaluate(arg));
+            arguments.add(evaluateBoxed(arg));
         }
 
         if (!(callee instanceof MinhppCallable)) {
@@ -407,7 +576,36 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.paren,
                     "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+
+        if (!(function instanceof MinhppFunction))
+            return function.call(this, arguments);
+
+        // Functions the tree walker made are run here directly, the same as
+        // their call() would.
+        MinhppFunction target = (MinhppFunction) function;
+        if (receiver == null)
+            receiver = target.receiver;
+
+        if (expr.tail) {
+            tailFunction = target;
+            tailReceiver = receiver;
+            tailArguments = arguments;
+            return TAIL_CALL;
+        }
+        return call(target, receiver, arguments);
+    }
+
+    private Object callNative(MinhppList list, Token name, MinhppList.Method method, Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        for (Expr arg : expr.arguments) {
+            arguments.add(evaluateBoxed(arg));
+        }
+
+        if (arguments.size() != method.arity) {
+            throw new RuntimeError(expr.paren,
+                    "Expected " + method.arity + " arguments but got " + arguments.size() + ".");
+        }
+        return method.call(list, name, arguments);
     }
 
     @Override
@@ -422,9 +620,70 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
 
         if (stmt.value != null)
-            value = evaluate(stmt.value);
+            value = evaluateBoxed(stmt.value);
+
+        returnValue(value);
+        return null;
+    }
+
+    void returnValue(Object value) {
+        completion = RETURN;
+        returnValue = value;
+    }
 
-        throw new mpp.Return(value);
+    /**
+     * Runs a script function on `receiver`, the body inline so each call a
+     * script makes costs one Java frame besides its statements'. Calls the
+     * body makes in tail position come back as TAIL_CALL and run here in
+     * turn, so tail recursion doesn't grow the Java stack.
+     */
+    Object call(MinhppFunction function, MinhppInstance receiver, List<Object> args) {
+        Environment previous = environment;
+        for (;;) {
+            environment = function.environment(receiver, args);
+
+            if (profiler != null)
+                profiler.enter(function.function);
+            Events.FunctionCall event = Events.FunctionCall.start(function.function);
+            try {
+                for (Stmt stmt : function.function.body) {
+                    execute(stmt);
+                    if (completion != NORMAL)
+                        break;
+                }
+            } finally {
+                environment = previous;
+                if (profiler != null)
+                    profiler.exit();
+                if (event != null)
+                    event.commit();
+            }
+
+            Object value = takeReturnValue();
+            if (function.isInitializer)
+                return receiver;
+            if (value != TAIL_CALL)
+                return value;
+
+            function = tailFunction;
+            receiver = tailReceiver;
+            args = tailArguments;
+            tailFunction = null;
+            tailReceiver = null;
+            tailArguments = null;
+        }
+    }
+
+    // Called by functions once their body finished: consumes a pending
+    // return and yields its value, or nil when the body ran off the end.
+    Object takeReturnValue() {
+        if (completion != RETURN)
+            return null;
+
+        Object value = returnValue;
+        completion = NORMAL;
+        returnValue = null;
+        return value;
     }
 
     @Override
@@ -441,11 +700,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
         }
 
-        Map<String, MinhppFunction> statics = new HashMap<>();
-        Map<String, MinhppFunction> methods = new HashMap<>();
+        Map<Symbol, MinhppFunction> statics = new HashMap<>();
+        Map<Symbol, MinhppFunction> methods = new HashMap<>();
         MinhppClass mClass;
 
-        environment.define(stmt.name.lexeme, null);
         // define super for static methods
         if (superclass != null) {
             environment = new Environment(environment);
@@ -455,7 +713,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         for (Stmt.Function method : stmt.statics) {
             MinhppFunction function = new MinhppFunction(method, environment,
                     false);
-            statics.put(method.name.lexeme, function);
+            statics.put(method.name.symbol(), function);
         }
 
         if (superclass != null) {
@@ -472,7 +730,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         for (Stmt.Function method : stmt.methods) {
             MinhppFunction function = new MinhppFunction(method, environment,
                     method.name.lexeme.equals(stmt.name.lexeme));
-            methods.put(method.name.lexeme, function);
+            methods.put(method.name.symbol(), function);
         }
 
         if (superclass != null) {
@@ -490,19 +748,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             mClass = new MinhppClass(metaclass, (MinhppClass) superclass, stmt.name.lexeme, methods);
         }
 
-        environment.assign(stmt.name, mClass);
+        // Nothing else is declared in this scope while the class is built, so
+        // defining it last still gives it the slot the resolver reserved.
+        environment.define(stmt.name.lexeme, mClass);
         return null;
     }
 
     @Override
     public Object visitGet(Get expr) {
+        return property(expr, instance(expr));
+    }
+
+    private MinhppInstance instance(Get expr) {
         Object object = evaluate(expr.object);
 
         if (!(object instanceof MinhppInstance)) {
             throw new RuntimeError(expr.name, "Only instances have property.");
         }
 
-        Object result = ((MinhppInstance) object).get(expr.name);
+        return (MinhppInstance) object;
+    }
+
+    private Object property(Get expr, MinhppInstance instance) {
+        Object result = expr.cache.get(instance, expr.name);
         if (result instanceof MinhppFunction && ((MinhppFunction) result).arity() == -1)
             return ((MinhppFunction) result).call(this, null);
 
@@ -514,8 +782,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
 
         if (object instanceof MinhppInstance) {
-            Object value = evaluate(expr.value);
-            ((MinhppInstance) object).set(expr.name, value);
+            Object value = evaluateBoxed(expr.value);
+            expr.cache.set((MinhppInstance) object, expr.name, value);
             return value;
         }
 
@@ -524,23 +792,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThis(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return variable(expr.depth, expr.slot, expr.keyword);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
+    // Locals holding an unboxed number come back as UNBOXED.
+    private Object variable(int depth, int slot, Token name) {
+        if (depth < 0)
             return globals.get(name);
-        }
+
+        Environment scope = environment.ancestor(depth);
+        Object value = scope.getRaw(slot);
+        if (value == UNBOXED)
+            number = scope.getNumber(slot);
+        return value;
     }
 
     private void execute(Stmt statement) {
         statement.accept(this);
     }
 
-    private String stringify(Object obj) {
+    static String stringify(Object obj) {
         if (obj == null)
             return "nil";
 
@@ -555,18 +826,59 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return obj.toString();
     }
 
+    // May yield UNBOXED, see evaluateUnboxed() and evaluateBoxed().
     private Object evaluate(Expr expression) {
         return expression.accept(this);
     }
 
-    private void checkNumberOperands(Token operator, Object... operands) {
-        for (Object operand : operands) {
-            if (!(operand instanceof Double))
-                throw new RuntimeError(operator, "Operand must be a number.");
-        }
+    /**
+     * Numeric results travel between expressions as UNBOXED with their value
+     * in {@link #number}; this also unboxes numbers coming from globals,
+     * fields, lists and calls so operators only have to check for the tag.
+     */
+    private Object evaluateUnboxed(Expr expression) {
+        Object value = expression.accept(this);
+        if (value instanceof Double)
+            return number((double) value);
+        return value;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    // For values that escape into fields, lists, arguments or return values.
+    private Object evaluateBoxed(Expr expression) {
+        return box(expression.accept(this), number);
+    }
+
+    private Object number(double value) {
+        number = value;
+        return UNBOXED;
+    }
+
+    private static Object box(Object value, double number) {
+        return value == UNBOXED ? (Object) number : value;
+    }
+
+    private static void checkNumberOperand(Token operator, Object operand) {
+        if (operand != UNBOXED)
+            throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left != UNBOXED || right != UNBOXED)
+            throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    private static boolean isEqual(Object left, double a, Object right, double b) {
+        if (left == UNBOXED && right == UNBOXED)
+            return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+        return isEqual(box(left, a), box(right, b));
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a instanceof Rope)
+            a = a.toString();
+        if (b instanceof Rope)
+            b = b.toString();
+
         if (a == null && b == null)
             return true;
         if (a == null)
@@ -575,7 +887,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private boolean isTruthy(Object obj) {
+    static boolean isTruthy(Object obj) {
         if (obj instanceof Boolean)
             return (boolean) obj;
 
@@ -587,83 +899,76 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuper(Super expr) {
-        int distance = locals.get(expr);
-        MinhppClass superclass = (MinhppClass) environment.getAt(distance, "super");
-        MinhppFunction method = superclass.findMethod(expr.method.lexeme);
-        if (method == null)
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
-
-        MinhppInstance currentInstance = (MinhppInstance) environment.getAt(distance - 1, "this");
+        MinhppFunction method = superMethod(expr);
+        MinhppInstance currentInstance = superReceiver(expr);
         if (method.arity() == -1)
-            return method.bind(currentInstance).call(this, null);
+            return method.call(this, currentInstance, null);
 
         return method.bind(currentInstance);
     }
 
+    private MinhppFunction superMethod(Super expr) {
+        MinhppClass superclass = (MinhppClass) environment.getAt(expr.depth, expr.slot);
+        MinhppFunction method = superclass.findMethod(expr.method.symbol());
+        if (method == null)
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        return method;
+    }
+
+    // "this" is always the first slot of the scope just inside "super".
+    private MinhppInstance superReceiver(Super expr) {
+        return (MinhppInstance) environment.getAt(expr.depth - 1, 0);
+    }
+
     @Override
     public Object visitMList(MList expr) {
-        List<Object> items = new ArrayList<>();
-        for (Expr init : expr.init) {
-            items.add(evaluate(init));
+        Object[] items = new Object[expr.init.size()];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = evaluateBoxed(expr.init.get(i));
         }
         return new MinhppList(items);
     }
 
+    @Override
+    public Object visitIndex(Index expr) {
+        MinhppList list = list(expr.object, expr.bracket);
+        return list.get(expr.bracket, index(expr.index, expr.bracket));
+    }
+
+    @Override
+    public Object visitSetIndex(SetIndex expr) {
+        MinhppList list = list(expr.object, expr.bracket);
+        double index = index(expr.index, expr.bracket);
+        Object value = evaluateBoxed(expr.value);
+        list.set(expr.bracket, index, value);
+        return value;
+    }
+
+    private MinhppList list(Expr expr, Token bracket) {
+        Object object = evaluate(expr);
+        if (!(object instanceof MinhppList))
+            throw new RuntimeError(bracket, "Only lists can be indexed.");
+        return (MinhppList) object;
+    }
+
+    private double index(Expr expr, Token bracket) {
+        if (evaluateUnboxed(expr) != UNBOXED)
+            throw new RuntimeError(bracket, "List index must be a number.");
+        return number;
+    }
+
     @Override
     public Object visitPostfix(Postfix expr) {
-        Object left = evaluate(expr.left);
         switch (expr.operator.type) {
             case MINUS_MINUS:
-                checkNumberOperands(expr.operator, left);
-                if (expr.left instanceof Expr.Variable) {
-                    Token name = ((Expr.Variable) expr.left).name;
-
-                    Integer distance = locals.get(expr.left);
-                    if (distance != null) {
-                        environment.assignAt(distance, name, (double) left - 1);
-                    } else {
-                        globals.assign(name, (double) left - 1);
-                    }
-                } else if (expr.left instanceof Expr.Get) {
-                    Expr.Get instance = (Expr.Get) expr.left;
-                    Object object = evaluate(instance.object);
-
-                    if (!(object instanceof MinhppInstance)) {
-                        throw new RuntimeError(instance.name, "Only instances have property.");
-                    }
-
-                    ((MinhppInstance) object).set(instance.name, (double) left - 1);
-                }
-
-                return (double) left;
+                return increment(expr.operator, expr.left, -1, false);
             case PLUS_PLUS:
-                checkNumberOperands(expr.operator, left);
-
-                if (expr.left instanceof Expr.Variable) {
-                    Token name = ((Expr.Variable) expr.left).name;
-
-                    Integer distance = locals.get(expr.left);
-                    if (distance != null) {
-                        environment.assignAt(distance, name, (double) left + 1);
-                    } else {
-                        globals.assign(name, (double) left + 1);
-                    }
-                } else if (expr.left instanceof Expr.Get) {
-                    Expr.Get instance = (Expr.Get) expr.left;
-                    Object object = evaluate(instance.object);
-
-                    if (!(object instanceof MinhppInstance)) {
-                        throw new RuntimeError(instance.name, "Only instances have property.");
-                    }
-
-                    ((MinhppInstance) object).set(instance.name, (double) left + 1);
-                }
-
-                return left;
+                return increment(expr.operator, expr.left, 1, false);
             default:
                 break;
         }
 
+        evaluate(expr.left);
         return null;
     }
 }
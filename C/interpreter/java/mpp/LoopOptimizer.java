@@ -0,0 +1,685 @@
+package mpp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mpp.Expr.Assign;
+import mpp.Expr.Binary;
+import mpp.Expr.Call;
+import mpp.Expr.Get;
+import mpp.Expr.Grouping;
+import mpp.Expr.Index;
+import mpp.Expr.Lambda;
+import mpp.Expr.Literal;
+import mpp.Expr.Logical;
+import mpp.Expr.MList;
+import mpp.Expr.Postfix;
+import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
+import mpp.Expr.Super;
+import mpp.Expr.Ternary;
+import mpp.Expr.This;
+import mpp.Expr.Unary;
+import mpp.Expr.Variable;
+import mpp.Stmt.Block;
+import mpp.Stmt.Break;
+import mpp.Stmt.Class;
+import mpp.Stmt.Continue;
+import mpp.Stmt.Expression;
+import mpp.Stmt.Function;
+import mpp.Stmt.If;
+import mpp.Stmt.Loop;
+import mpp.Stmt.Return;
+import mpp.Stmt.Var;
+
+/**
+ * Marks up loops for the tree-walking interpreter. In a loop, each largest
+ * arithmetic expression reading only literals, `this` and variables the
+ * loop never assigns gets `invariantIn` set to the loop and an
+ * `invariantIndex` among the loop's `invariants`. The interpreter then
+ * evaluates it once each time the loop runs, at the point it would first
+ * have run, so an error it raises still happens where it did.
+ *
+ * A loop with calls, property reads or `super` may run other script code,
+ * which can assign any global and any local some closure assigns. Such
+ * variables are not invariant in that loop; the first walk over the
+ * program finds which locals closures assign.
+ *
+ * A loop counting a local up or down by a constant against an invariant
+ * bound, such as `for (var i = 0; i < n; i++)` when the body leaves `i`
+ * alone, gets the variable as its `counter` and the constant as its `step`,
+ * and the interpreter steps it as a plain double.
+ */
+class LoopOptimizer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    // The scopes the resolver opened around the current node, as ids, and
+    // how many functions deep each one was opened.
+    private final List<Integer> scopes = new ArrayList<>();
+    private final List<Integer> levels = new ArrayList<>();
+    private final Map<Object, Integer> scopeIds = new IdentityHashMap<>();
+    private int level = 0;
+    // Locals assigned from a function nested in their scope, by scope id
+    // and slot.
+    private final HashSet<Long> assignedByClosures = new HashSet<>();
+    private boolean collecting;
+
+    void optimize(List<Stmt> stmts) {
+        collecting = true;
+        walk(stmts);
+        collecting = false;
+        walk(stmts);
+    }
+
+    private void walk(List<Stmt> stmts) {
+        for (Stmt stmt : stmts)
+            find(stmt);
+    }
+
+    private void find(Stmt stmt) {
+        if (stmt != null)
+            stmt.accept(this);
+    }
+
+    private void find(Expr expr) {
+        if (expr != null)
+            expr.accept(this);
+    }
+
+    // The same scopes as the resolver: blocks, functions, and the one
+    // holding `super` around a subclass's methods.
+    private void beginScope(Object node) {
+        Integer id = scopeIds.get(node);
+        if (id == null) {
+            id = scopeIds.size();
+            scopeIds.put(node, id);
+        }
+        scopes.add(id);
+        levels.add(level);
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+        levels.remove(levels.size() - 1);
+    }
+
+    private void assigned(int depth, int slot) {
+        if (!collecting || depth < 0)
+            return;
+
+        int scope = scopes.size() - 1 - depth;
+        if (levels.get(scope) < level)
+            assignedByClosures.add(local(scopes.get(scope), slot));
+    }
+
+    private void assigned(Expr target) {
+        if (target instanceof Variable)
+            assigned(((Variable) target).depth, ((Variable) target).slot);
+    }
+
+    // Whether a function may assign the local `depth` scopes out, as seen
+    // from the current node.
+    boolean assignedByClosure(int depth, int slot) {
+        return assignedByClosures.contains(local(scopes.get(scopes.size() - 1 - depth), slot));
+    }
+
+    private static long local(int scope, int slot) {
+        return ((long) scope << 32) | slot;
+    }
+
+    @Override
+    public Void visitLoop(Loop stmt) {
+        if (!collecting)
+            new Analysis(stmt, this).run();
+
+        find(stmt.condition);
+        find(stmt.whileStmt);
+        find(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block stmt) {
+        beginScope(stmt);
+        walk(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If stmt) {
+        find(stmt.condition);
+        find(stmt.trueStmt);
+        find(stmt.falseStmt);
+        return null;
+    }
+
+    @Override
+    public Void visitClass(Class stmt) {
+        if (stmt.superclass != null)
+            beginScope(stmt);
+        for (Function method : stmt.methods)
+            find(method);
+        for (Function method : stmt.statics)
+            find(method);
+        if (stmt.superclass != null)
+            endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var stmt) {
+        find(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(Expression stmt) {
+        find(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return stmt) {
+        find(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function stmt) {
+        level++;
+        beginScope(stmt);
+        walk(stmt.body);
+        endScope();
+        level--;
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        find(expr.left);
+        find(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitMList(MList expr) {
+        for (Expr item : expr.init)
+            find(item);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign expr) {
+        assigned(expr.depth, expr.slot);
+        find(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Ternary expr) {
+        find(expr.condition);
+        find(expr.trueExpr);
+        find(expr.falseExpr);
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical expr) {
+        find(expr.left);
+        find(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        find(expr.function);
+        return null;
+    }
+
+    @Override
+    public Void visitSuper(Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        find(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitGet(Get expr) {
+        find(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSet(Set expr) {
+        find(expr.object);
+        find(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index expr) {
+        find(expr.object);
+        find(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndex(SetIndex expr) {
+        find(expr.object);
+        find(expr.index);
+        find(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThis(This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitPostfix(Postfix expr) {
+        assigned(expr.left);
+        find(expr.left);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call expr) {
+        find(expr.callee);
+        for (Expr argument : expr.arguments)
+            find(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        if (expr.operator.type == TokenType.PLUS_PLUS || expr.operator.type == TokenType.MINUS_MINUS)
+            assigned(expr.right);
+        find(expr.right);
+        return null;
+    }
+
+    /**
+     * Looks at one loop in two walks: the first finds out whether the loop
+     * may run other code and which variables it assigns, the second marks
+     * what is invariant. Visiting an expression returns whether it is
+     * invariant.
+     *
+     * Locals are told apart by their slot and how many scopes outside the
+     * loop they were declared, so `inner` counts the blocks entered since
+     * the loop; a depth smaller than it is a local of the loop's own body.
+     */
+    private static final class Analysis implements Stmt.Visitor<Void>, Expr.Visitor<Boolean> {
+        private final Loop loop;
+        private final LoopOptimizer outer;
+        // How many places assign each local, and which globals are assigned.
+        private final Map<Long, Integer> assignedLocals = new HashMap<>();
+        private final HashSet<Symbol> assignedGlobals = new HashSet<>();
+        private boolean runsCode = false;
+        private boolean marking = false;
+        private int inner = 0;
+
+        Analysis(Loop loop, LoopOptimizer outer) {
+            this.loop = loop;
+            this.outer = outer;
+        }
+
+        void run() {
+            walk();
+            marking = true;
+            walk();
+            findCounter();
+        }
+
+        private void walk() {
+            root(loop.condition);
+            visit(loop.whileStmt);
+            visit(loop.increment);
+        }
+
+        // A counted loop compares a local with an invariant bound and
+        // steps it by a constant in the increment, and nowhere else.
+        private void findCounter() {
+            if (!(loop.condition instanceof Binary) || !(loop.increment instanceof Expression))
+                return;
+
+            Binary test = (Binary) loop.condition;
+            switch (test.operator.type) {
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                    break;
+                default:
+                    return;
+            }
+
+            if (!(test.left instanceof Variable) || !test.right.accept(this))
+                return;
+
+            Variable counter = (Variable) test.left;
+            Expr increment = ((Expression) loop.increment).expression;
+            double step = step(counter, increment);
+            if (counter.depth < 0 || step == 0
+                    || assignedLocals.get(local(counter.depth, counter.slot)) != 1
+                    || runsCode && outer.assignedByClosure(counter.depth - inner, counter.slot))
+                return;
+
+            loop.counter = counter;
+            loop.step = step;
+        }
+
+        // The constant `increment` adds to `counter`, or 0 if it isn't one.
+        private static double step(Variable counter, Expr increment) {
+            if (increment instanceof Postfix) {
+                Postfix postfix = (Postfix) increment;
+                if (same(counter, postfix.left))
+                    return postfix.operator.type == TokenType.PLUS_PLUS ? 1 : -1;
+            } else if (increment instanceof Unary) {
+                Unary unary = (Unary) increment;
+                if (unary.operator.type == TokenType.PLUS_PLUS && same(counter, unary.right))
+                    return 1;
+                if (unary.operator.type == TokenType.MINUS_MINUS && same(counter, unary.right))
+                    return -1;
+            } else if (increment instanceof Assign) {
+                Assign assign = (Assign) increment;
+                if (assign.depth != counter.depth || assign.slot != counter.slot
+                        || !(assign.value instanceof Binary))
+                    return 0;
+
+                Binary value = (Binary) assign.value;
+                if (!same(counter, value.left) || !(value.right instanceof Literal)
+                        || !(((Literal) value.right).value instanceof Double))
+                    return 0;
+
+                double constant = (Double) ((Literal) value.right).value;
+                if (value.operator.type == TokenType.PLUS)
+                    return constant;
+                if (value.operator.type == TokenType.MINUS)
+                    return -constant;
+            }
+            return 0;
+        }
+
+        private static boolean same(Variable counter, Expr expr) {
+            return expr instanceof Variable && ((Variable) expr).depth == counter.depth
+                    && ((Variable) expr).slot == counter.slot;
+        }
+
+        private void hoist(Expr expr) {
+            if (expr instanceof Binary) {
+                Binary binary = (Binary) expr;
+                if (binary.invariantIn == null) {
+                    binary.invariantIn = loop;
+                    binary.invariantIndex = loop.invariants++;
+                }
+            } else if (expr instanceof Unary) {
+                hoist(((Unary) expr).right);
+            } else if (expr instanceof Logical) {
+                hoist(((Logical) expr).left);
+                hoist(((Logical) expr).right);
+            } else if (expr instanceof Ternary) {
+                hoist(((Ternary) expr).condition);
+                hoist(((Ternary) expr).trueExpr);
+                hoist(((Ternary) expr).falseExpr);
+            }
+        }
+
+        // Visits an expression at the top of a statement.
+        private void root(Expr expr) {
+            if (expr != null && expr.accept(this) && marking)
+                hoist(expr);
+        }
+
+        private void visit(Stmt stmt) {
+            if (stmt != null)
+                stmt.accept(this);
+        }
+
+        // Hoists whichever of a node's children are invariant when the
+        // node itself isn't.
+        private boolean children(Expr... children) {
+            boolean invariant = true;
+            boolean[] each = new boolean[children.length];
+            for (int i = 0; i < children.length; ++i) {
+                each[i] = children[i].accept(this);
+                invariant &= each[i];
+            }
+
+            if (!invariant && marking) {
+                for (int i = 0; i < children.length; ++i) {
+                    if (each[i])
+                        hoist(children[i]);
+                }
+            }
+            return invariant;
+        }
+
+        private long local(int depth, int slot) {
+            return ((long) (depth - inner) << 32) | slot;
+        }
+
+        private void assign(Token name, int depth, int slot) {
+            if (depth < 0)
+                assignedGlobals.add(name.symbol());
+            else if (depth >= inner)
+                assignedLocals.merge(local(depth, slot), 1, Integer::sum);
+        }
+
+        // Increments of a property may run a getter, which visiting the
+        // target notes.
+        private boolean increment(Expr target) {
+            if (target instanceof Variable) {
+                Variable variable = (Variable) target;
+                if (!marking)
+                    assign(variable.name, variable.depth, variable.slot);
+            } else {
+                target.accept(this);
+            }
+            return false;
+        }
+
+        @Override
+        public Void visitBlock(Block stmt) {
+            inner++;
+            for (Stmt statement : stmt.statements)
+                visit(statement);
+            inner--;
+            return null;
+        }
+
+        @Override
+        public Void visitLoop(Loop stmt) {
+            root(stmt.condition);
+            visit(stmt.whileStmt);
+            visit(stmt.increment);
+            return null;
+        }
+
+        @Override
+        public Void visitIf(If stmt) {
+            root(stmt.condition);
+            visit(stmt.trueStmt);
+            visit(stmt.falseStmt);
+            return null;
+        }
+
+        @Override
+        public Void visitClass(Class stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitVar(Var stmt) {
+            root(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitExpression(Expression stmt) {
+            root(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitBreak(Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitContinue(Continue stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return stmt) {
+            root(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitFunction(Function stmt) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitBinary(Binary expr) {
+            return children(expr.left, expr.right);
+        }
+
+        @Override
+        public Boolean visitMList(MList expr) {
+            if (!expr.init.isEmpty())
+                children(expr.init.toArray(new Expr[0]));
+            return false;
+        }
+
+        @Override
+        public Boolean visitAssign(Assign expr) {
+            if (!marking)
+                assign(expr.name, expr.depth, expr.slot);
+            children(expr.value);
+            return false;
+        }
+
+        @Override
+        public Boolean visitTernary(Ternary expr) {
+            return children(expr.condition, expr.trueExpr, expr.falseExpr);
+        }
+
+        @Override
+        public Boolean visitLogical(Logical expr) {
+            return children(expr.left, expr.right);
+        }
+
+        @Override
+        public Boolean visitLambda(Lambda expr) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitSuper(Super expr) {
+            runsCode = true;
+            return false;
+        }
+
+        @Override
+        public Boolean visitGrouping(Grouping expr) {
+            return children(expr.expression);
+        }
+
+        @Override
+        public Boolean visitGet(Get expr) {
+            runsCode = true;
+            children(expr.object);
+            return false;
+        }
+
+        @Override
+        public Boolean visitSet(Set expr) {
+            children(expr.object, expr.value);
+            return false;
+        }
+
+        @Override
+        public Boolean visitIndex(Index expr) {
+            children(expr.object, expr.index);
+            return false;
+        }
+
+        @Override
+        public Boolean visitSetIndex(SetIndex expr) {
+            children(expr.object, expr.index, expr.value);
+            return false;
+        }
+
+        @Override
+        public Boolean visitThis(This expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitLiteral(Literal expr) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitPostfix(Postfix expr) {
+            return increment(expr.left);
+        }
+
+        @Override
+        public Boolean visitCall(Call expr) {
+            runsCode = true;
+            Expr[] children = new Expr[expr.arguments.size() + 1];
+            children[0] = expr.callee;
+            for (int i = 1; i < children.length; ++i)
+                children[i] = expr.arguments.get(i - 1);
+            children(children);
+            return false;
+        }
+
+        @Override
+        public Boolean visitVariable(Variable expr) {
+            if (expr.depth < 0)
+                return !runsCode && !assignedGlobals.contains(expr.name.symbol());
+            return expr.depth >= inner && !assignedLocals.containsKey(local(expr.depth, expr.slot))
+                    && !(runsCode && outer.assignedByClosure(expr.depth - inner, expr.slot));
+        }
+
+        @Override
+        public Boolean visitUnary(Unary expr) {
+            TokenType type = expr.operator.type;
+            if (type == TokenType.PLUS_PLUS || type == TokenType.MINUS_MINUS)
+                return increment(expr.right);
+            return children(expr.right);
+        }
+    }
+}
@@ -3,29 +3,91 @@ package mpp;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Minhpp {
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
     private static Interpreter interpreter = new Interpreter();
+    private static VM vm = null;
+    private static boolean nodes = false;
+    private static ScriptCache cache = null;
+    // Collects warnings while a script is being resolved for the cache.
+    private static List<String> warnings = null;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jmpp [script]");
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int argc = 0;
+        String profile = null;
+        for (; argc + 1 < args.length; argc += 2) {
+            if (args[argc].equals("--profile"))
+                profile = args[argc + 1];
+            else if (args[argc].equals("--cache"))
+                cache = new ScriptCache(Paths.get(args[argc + 1]));
+            else
+                break;
+        }
+
+        if (argc < args.length && reset(args[argc]))
+            argc++;
+
+        if (profile != null)
+            profile(profile);
+
+        if (args.length - argc > 1) {
+            System.out.println("Usage: jmpp [--profile file] [--cache dir] [--vm | --nodes] [script]");
+        } else if (args.length - argc == 1) {
+            runFile(args[argc]);
         } else {
             runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()), false);
+    /**
+     * Starts over with a fresh interpreter on the backend named by a command
+     * line flag, the tree walker unless it is --vm or --nodes. Returns
+     * whether the flag named another backend.
+     */
+    static boolean reset(String flag) {
+        interpreter = new Interpreter();
+        vm = flag.equals("--vm") ? new VM(interpreter) : null;
+        nodes = flag.equals("--nodes");
+        hadError = false;
+        hadRuntimeError = false;
+        return vm != null || nodes;
+    }
+
+    // Samples the script's call stack until the JVM exits, then writes the
+    // collapsed stacks to `path`.
+    private static void profile(String path) {
+        Profiler profiler = new Profiler();
+        interpreter.profiler = profiler;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                profiler.write(path);
+            } catch (IOException e) {
+                System.err.println("Could not write profile: " + e.getMessage());
+            }
+        }));
+    }
+
+    static void runFile(String path) throws IOException {
+        if (cache != null) {
+            runCached(Files.readAllBytes(Paths.get(path)));
+        } else {
+            // The scanner reads the file as the parser asks for tokens.
+            try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)),
+                    Charset.defaultCharset())) {
+                run(new Parser(new Scanner(reader)), false);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
 
         if (hadError)
             System.exit(65);
@@ -43,37 +105,83 @@ public class Minhpp {
             String line = reader.readLine();
             if (line == null)
                 break;
-            run(line, true);
+            List<Token> tokens = new Scanner(line).scanTokens();
+            tokens.add(tokens.size() - 1, new Token(TokenType.SEMICOLON, ";", null, 1));
+            run(new Parser(tokens), true);
             hadError = false;
         }
     }
 
-    private static void run(String source, boolean cmd) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        if (cmd)
-            tokens.add(tokens.size() - 1, new Token(TokenType.SEMICOLON, ";", null, 1));
-        Parser parser = new Parser(tokens);
+    // Runs the resolved program cached for `source`, compiling and caching it
+    // first if there is none. Scripts with errors are never cached.
+    private static void runCached(byte[] source) throws IOException {
+        List<Stmt> statements = cache.load(source);
+        if (statements == null) {
+            List<String> printed = warnings = new ArrayList<>();
+            String text = new String(source, Charset.defaultCharset());
+            statements = compile(new Parser(new Scanner(text).scanBuffer()));
+            warnings = null;
+
+            if (statements != null)
+                cache.store(source, statements, printed);
+        }
+
+        if (statements != null)
+            execute(statements, false);
+    }
+
+    private static void run(Parser parser, boolean cmd) {
+        List<Stmt> statements = compile(parser);
+        if (statements != null)
+            execute(statements, cmd);
+    }
+
+    // Parses, resolves and optimizes a program, or returns null if it has
+    // errors.
+    private static List<Stmt> compile(Parser parser) {
         List<Stmt> statements = parser.parse();
 
         if (hadError)
-            return;
+            return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
+        if (hadError)
+            return null;
+
+        return new Optimizer().optimize(statements);
+    }
+
+    private static void execute(List<Stmt> statements, boolean cmd) {
+        if (nodes) {
+            interpreter.interpret(new NodeCompiler(interpreter, cmd).compile(statements));
+            return;
+        }
+
+        if (vm == null) {
+            new LoopOptimizer().optimize(statements);
+            interpreter.interpret(statements, cmd);
+            return;
+        }
+
+        Chunk chunk = new Compiler(interpreter, cmd).compile(statements);
+
         if (hadError)
             return;
 
-        interpreter.interpret(statements, cmd);
+        vm.interpret(chunk);
     }
 
     public static void warning(Token token, String message) {
-        System.err.println("[line " + token.line + "] Warning: " + message);
+        String warning = "[line " + token.line + "] Warning: " + message;
+        if (warnings != null)
+            warnings.add(warning);
+        System.err.println(warning);
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + " [line " + error.token.line + "]");
+        System.err.println(error.getMessage() + " [line " + error.line + "]");
         hadRuntimeError = true;
     }
 
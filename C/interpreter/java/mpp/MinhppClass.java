@@ -1,19 +1,34 @@
 package mpp;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class MinhppClass extends MinhppInstance implements MinhppCallable {
     final String name;
     final MinhppClass superclass;
-    private final Map<String, MinhppFunction> methods;
+    // Own methods on top of everything inherited, so a lookup never has to
+    // walk the superclass chain.
+    private final Map<Symbol, MinhppFunction> methods;
+    final MinhppFunction initializer;
+    // Root of the shapes its instances go through, and how many fields the
+    // largest of them has had.
+    final Shape instanceShape = new Shape();
+    int expectedFields = 0;
 
     MinhppClass(MinhppClass metaclass, MinhppClass superclass, String name,
-            Map<String, MinhppFunction> methods) {
+            Map<Symbol, MinhppFunction> methods) {
         super(metaclass);
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        if (superclass == null) {
+            this.methods = methods;
+        } else {
+            this.methods = new HashMap<>(superclass.methods);
+            this.methods.putAll(methods);
+        }
+        this.initializer = this.methods.get(Symbol.of(name));
     }
 
     @Override
@@ -21,14 +36,8 @@ class MinhppClass extends MinhppInstance implements MinhppCallable {
         throw new RuntimeError(name, "Can't assign class property.");
     }
 
-    public MinhppFunction findMethod(String name) {
-        if (methods.containsKey(name))
-            return methods.get(name);
-
-        if (superclass != null)
-            return superclass.findMethod(name);
-
-        return null;
+    public MinhppFunction findMethod(Symbol name) {
+        return methods.get(name);
     }
 
     @Override
@@ -38,7 +47,6 @@ class MinhppClass extends MinhppInstance implements MinhppCallable {
 
     @Override
     public int arity() {
-        MinhppFunction initializer = findMethod(name);
         if (initializer != null)
             return initializer.arity();
         return 0;
@@ -47,10 +55,10 @@ class MinhppClass extends MinhppInstance implements MinhppCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
         MinhppInstance instance = new MinhppInstance(this);
+        Events.Instantiation.emit(this);
 
-        MinhppFunction initializer = findMethod(name);
         if (initializer != null)
-            initializer.bind(instance).call(interpreter, args);
+            initializer.call(interpreter, instance, args);
 
         return instance;
     }
@@ -3,20 +3,26 @@ package mpp;
 import java.util.List;
 
 public class MinhppFunction implements MinhppCallable {
-    private final Stmt.Function function;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function function;
+    final Environment closure;
+    final boolean isInitializer;
+    // The instance a method was bound to, null for plain functions.
+    final MinhppInstance receiver;
 
     public MinhppFunction(Stmt.Function function, Environment closure, boolean isInitializer) {
+        this(function, closure, isInitializer, null);
+    }
+
+    MinhppFunction(Stmt.Function function, Environment closure, boolean isInitializer,
+            MinhppInstance receiver) {
         this.function = function;
         this.isInitializer = isInitializer;
         this.closure = closure;
+        this.receiver = receiver;
     }
 
     public MinhppFunction bind(MinhppInstance mInstance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", mInstance);
-        return new MinhppFunction(function, environment, isInitializer);
+        return new MinhppFunction(function, closure, isInitializer, mInstance);
     }
 
     @Override
@@ -28,24 +34,26 @@ public class MinhppFunction implements MinhppCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
+        return call(interpreter, receiver, args);
+    }
+
+    // Runs a method on `receiver` without binding it first.
+    Object call(Interpreter interpreter, MinhppInstance receiver, List<Object> args) {
+        return interpreter.call(this, receiver, args);
+    }
+
+    // The scope a call runs its body in, with the receiver and arguments
+    // defined.
+    Environment environment(MinhppInstance receiver, List<Object> args) {
         Environment environment = new Environment(closure);
+        if (receiver != null)
+            environment.define("this", receiver);
         if (function.params != null) {
             for (int i = 0; i < function.params.size(); ++i) {
                 environment.define(function.params.get(i).lexeme, args.get(i));
             }
         }
-
-        try {
-            interpreter.executeBlock(function.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer)
-                return closure.getAt(0, "this");
-            return returnValue.value;
-        }
-
-        if (isInitializer)
-            return closure.getAt(0, "this");
-        return null;
+        return environment;
     }
 
     @Override
@@ -1,31 +1,75 @@
 package mpp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class MinhppInstance {
-    protected Map<String, Object> fields;
+    // Returned by field() when the instance has no field of that name.
+    static final Object ABSENT = new Object();
+
+    // Instances without a class (lists) grow their shapes from here.
+    private static final Shape ROOT = new Shape();
+    private static final Object[] EMPTY = new Object[0];
+
+    // Field values, laid out as described by `shape`.
+    Shape shape;
+    Object[] values;
     final MinhppClass mClass;
 
     MinhppInstance(MinhppClass mClass) {
         this.mClass = mClass;
-        this.fields = new HashMap<>();
+        if (mClass == null) {
+            this.shape = ROOT;
+            this.values = EMPTY;
+        } else {
+            this.shape = mClass.instanceShape;
+            this.values = mClass.expectedFields == 0 ? EMPTY : new Object[mClass.expectedFields];
+        }
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        put(name.symbol(), value);
+    }
+
+    protected void put(Symbol name, Object value) {
+        int index = shape.indexOf(name);
+        if (index < 0) {
+            index = shape.size();
+            transition(shape.with(name));
+        }
+        values[index] = value;
+    }
+
+    // Moves to a shape one field larger, making room for the new field.
+    void transition(Shape next) {
+        int size = next.size();
+        if (size > values.length)
+            values = Arrays.copyOf(values, Math.max(size, values.length < 2 ? 4 : values.length * 2));
+
+        // Later instances of the class start out with room for every field
+        // seen so far, so they don't regrow.
+        if (mClass != null && size > mClass.expectedFields)
+            mClass.expectedFields = size;
+        shape = next;
     }
 
     /* public String getName() {
         return mClass.name;
     } */
 
+    Object field(Symbol name) {
+        int index = shape.indexOf(name);
+        if (index < 0)
+            return ABSENT;
+        return values[index];
+    }
+
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme))
-            return fields.get(name.lexeme);
+        Object value = field(name.symbol());
+        if (value != ABSENT)
+            return value;
 
         if (mClass != null)
-        { MinhppFunction method = mClass.findMethod(name.lexeme);
+        { MinhppFunction method = mClass.findMethod(name.symbol());
         if (method != null)
             return method.bind(this); }
 
@@ -1,83 +1,172 @@
 package mpp;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * MinhppList
  */
 public class MinhppList extends MinhppInstance {
-    private List<Object> items = new ArrayList<>();
+    private static final Object[] EMPTY = new Object[0];
+    private static final int MIN_CAPACITY = 8;
 
-    @Override
-    public void set(Token name, Object value) {
-        throw new RuntimeError(name, "Can't set list property.");
-    }
+    // The natives every list answers to. Reading one hands out a callable
+    // bound to the list, nothing is allocated per list. Call sites that
+    // cache one run it on the list directly.
+    static abstract class Method {
+        final int arity;
 
-    MinhppList(List<Object> args) {
-        super(null);
+        Method(int arity) {
+            this.arity = arity;
+        }
 
-        for (Object arg : args)
-            items.add(arg);
+        abstract Object call(MinhppList list, Token name, List<Object> args);
+    }
 
-        super.fields.put("size", new MinhppCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
+    private static final Map<Symbol, Method> methods = new HashMap<>();
 
+    static {
+        methods.put(Symbol.of("size"), new Method(0) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return items.size();
+            Object call(MinhppList list, Token name, List<Object> args) {
+                return (double) list.count;
             }
         });
 
-        super.fields.put("remove", new MinhppCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
+        methods.put(Symbol.of("remove"), new Method(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return items.remove(args.get(0));
+            Object call(MinhppList list, Token name, List<Object> args) {
+                return list.remove(args.get(0));
             }
         });
 
-        super.fields.put("get", new MinhppCallable() {
+        methods.put(Symbol.of("get"), new Method(1) {
             @Override
-            public int arity() {
-                return 1;
+            Object call(MinhppList list, Token name, List<Object> args) {
+                return list.get(name, args.get(0));
             }
+        });
 
+        methods.put(Symbol.of("add"), new Method(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return items.get(0);
+            Object call(MinhppList list, Token name, List<Object> args) {
+                list.add(args.get(0));
+                return args.get(0);
             }
         });
+    }
 
-        super.fields.put("add", new MinhppCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
+    // The native `name` resolves to on every list, or null.
+    static Method method(Symbol name) {
+        return methods.get(name);
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                items.add(args.get(0));
-                return args.get(0);
+    private static final class BoundMethod implements MinhppCallable {
+        private final MinhppList list;
+        private final Token name;
+        private final Method method;
+
+        BoundMethod(MinhppList list, Token name, Method method) {
+            this.list = list;
+            this.name = name;
+            this.method = method;
+        }
+
+        @Override
+        public int arity() {
+            return method.arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            return method.call(list, name, args);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private Object[] items;
+    private int count;
+
+    // Takes ownership of `items`.
+    MinhppList(Object[] items) {
+        super(null);
+        this.items = items.length == 0 ? EMPTY : items;
+        this.count = items.length;
+    }
+
+    @Override
+    public void set(Token name, Object value) {
+        throw new RuntimeError(name, "Can't set list property.");
+    }
+
+    @Override
+    public Object get(Token name) {
+        Method method = methods.get(name.symbol());
+        if (method != null)
+            return bind(name, method);
+
+        throw new RuntimeError(name, "Undefined property " + name.lexeme + ".");
+    }
+
+    MinhppCallable bind(Token name, Method method) {
+        return new BoundMethod(this, name, method);
+    }
+
+    Object get(Token bracket, Object index) {
+        if (!(index instanceof Double))
+            throw new RuntimeError(bracket, "List index must be a number.");
+        return get(bracket, (double) index);
+    }
+
+    Object get(Token bracket, double index) {
+        return items[index(bracket, index)];
+    }
+
+    void set(Token bracket, double index, Object value) {
+        items[index(bracket, index)] = value;
+    }
+
+    void add(Object value) {
+        // Doubling keeps appends amortized constant time; lists built by
+        // repeated add() in a loop copy each element about twice in total.
+        if (count == items.length)
+            items = Arrays.copyOf(items, count < MIN_CAPACITY ? MIN_CAPACITY : count * 2);
+        items[count++] = value;
+    }
+
+    private boolean remove(Object value) {
+        for (int i = 0; i < count; ++i) {
+            if (Interpreter.isEqual(items[i], value)) {
+                System.arraycopy(items, i + 1, items, i, count - i - 1);
+                items[--count] = null;
+                return true;
             }
-        });
+        }
+        return false;
+    }
+
+    private int index(Token bracket, double index) {
+        int i = (int) index;
+        if (i != index || i < 0 || i >= count)
+            throw new RuntimeError(bracket, "List index out of range.");
+        return i;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append('[');
-        for (Object item : items) {
-            builder.append(item.toString() + ", ");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(items[i] == null ? "nil" : items[i].toString());
         }
-        builder.delete(builder.length() - 2, builder.length());
         builder.append(']');
 
         return builder.toString();
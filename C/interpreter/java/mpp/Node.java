@@ -0,0 +1,1210 @@
+package mpp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executable tree built by {@link NodeCompiler}. Every node already holds its
+ * resolved operands (slots, operator kind, constants), so running it needs
+ * neither the visitor nor the interpreter's resolution map.
+ */
+abstract class Node {
+    // Type feedback states of the self-specializing nodes.
+    static final int UNINITIALIZED = 0;
+    static final int DOUBLES = 1;
+    static final int STRINGS = 2;
+    static final int GENERIC = 3;
+
+    abstract Object execute(Environment environment);
+
+    /**
+     * Evaluates to an unboxed double. Nodes that can produce one without
+     * boxing override this; when the value turns out not to be a number it
+     * is handed back through {@link UnexpectedResult}.
+     */
+    double executeDouble(Environment environment) {
+        return expectDouble(execute(environment));
+    }
+
+    // Operands of the numeric nodes go through here. Locals are read straight
+    // from their unboxed slot; everything else takes the virtual call.
+    static double readDouble(Node node, Environment environment) {
+        if (node instanceof GetLocal) {
+            GetLocal local = (GetLocal) node;
+            return environment.getNumberAt(local.depth, local.slot);
+        }
+        return node.executeDouble(environment);
+    }
+
+    static double expectDouble(Object value) {
+        if (value instanceof Double)
+            return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    static final class UnexpectedResult extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    // Completions handed back by statement nodes, null means the statement
+    // completed normally. A returned value waits in the interpreter's
+    // return register until the enclosing NodeFunction takes it.
+    static final Object BREAK = new Object();
+    static final Object CONTINUE = new Object();
+    static final Object RETURN = new Object();
+
+    // A function declaration together with its compiled body.
+    static final class Code {
+        final Stmt.Function function;
+        final Node[] body;
+
+        Code(Stmt.Function function, Node[] body) {
+            this.function = function;
+            this.body = body;
+        }
+    }
+
+    static final class Constant extends Node {
+        final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return expectDouble(value);
+        }
+    }
+
+    static final class GetLocal extends Node {
+        final int depth;
+        final int slot;
+
+        GetLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static final class SetLocal extends Node {
+        final int depth;
+        final int slot;
+        final Node value;
+
+        SetLocal(int depth, int slot, Node value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    static final class GetGlobal extends Node {
+        final Environment globals;
+        final Token name;
+
+        GetGlobal(Environment globals, Token name) {
+            this.globals = globals;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return globals.get(name);
+        }
+    }
+
+    static final class SetGlobal extends Node {
+        final Environment globals;
+        final Token name;
+        final Node value;
+
+        SetGlobal(Environment globals, Token name, Node value) {
+            this.globals = globals;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            globals.assign(name, result);
+            return result;
+        }
+    }
+
+    abstract static class BinaryNode extends Node {
+        final Node left;
+        final Token operator;
+        final Node right;
+
+        BinaryNode(Node left, Token operator, Node right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        final void checkNumberOperands(Object left, Object right) {
+            if (!(left instanceof Double) || !(right instanceof Double))
+                throw new RuntimeError(operator, "Operand must be a number.");
+        }
+    }
+
+    /**
+     * Arithmetic that specializes itself on the operands it sees first. While
+     * both sides keep being numbers it works on unboxed doubles, and it falls
+     * back to the generic path for good once they are not.
+     */
+    abstract static class ArithmeticNode extends BinaryNode {
+        int state = UNINITIALIZED;
+
+        ArithmeticNode(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        abstract double apply(double a, double b);
+
+        abstract Object applyGeneric(Object a, Object b);
+
+        int specialize(Object a, Object b) {
+            return a instanceof Double && b instanceof Double ? DOUBLES : GENERIC;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (state == DOUBLES) {
+                try {
+                    return executeDouble(environment);
+                } catch (UnexpectedResult e) {
+                    return e.value;
+                }
+            }
+
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+            if (state == UNINITIALIZED)
+                state = specialize(a, b);
+            return applyGeneric(a, b);
+        }
+
+        @Override
+        final double executeDouble(Environment environment) {
+            if (state != DOUBLES)
+                return expectDouble(execute(environment));
+
+            double a;
+            try {
+                a = readDouble(left, environment);
+            } catch (UnexpectedResult e) {
+                state = GENERIC;
+                return expectDouble(applyGeneric(e.value, right.execute(environment)));
+            }
+
+            double b;
+            try {
+                b = readDouble(right, environment);
+            } catch (UnexpectedResult e) {
+                state = GENERIC;
+                return expectDouble(applyGeneric(a, e.value));
+            }
+
+            return apply(a, b);
+        }
+    }
+
+    static final class Add extends ArithmeticNode {
+        Add(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        int specialize(Object a, Object b) {
+            if (Rope.isString(a) && Rope.isString(b))
+                return STRINGS;
+            return super.specialize(a, b);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (state != STRINGS)
+                return super.execute(environment);
+
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+            if (Rope.isString(a) && Rope.isString(b))
+                return Rope.concat(a, b);
+
+            state = GENERIC;
+            return applyGeneric(a, b);
+        }
+
+        @Override
+        double apply(double a, double b) {
+            return a + b;
+        }
+
+        @Override
+        Object applyGeneric(Object a, Object b) {
+            if (a instanceof Double && b instanceof Double)
+                return (double) a + (double) b;
+
+            if (Rope.isString(a) || Rope.isString(b))
+                return Rope.concat(a, b);
+
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    static final class Subtract extends ArithmeticNode {
+        Subtract(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double apply(double a, double b) {
+            return a - b;
+        }
+
+        @Override
+        Object applyGeneric(Object a, Object b) {
+            checkNumberOperands(a, b);
+            return (double) a - (double) b;
+        }
+    }
+
+    static final class Multiply extends ArithmeticNode {
+        Multiply(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double apply(double a, double b) {
+            return a * b;
+        }
+
+        @Override
+        Object applyGeneric(Object a, Object b) {
+            checkNumberOperands(a, b);
+            return (double) a * (double) b;
+        }
+    }
+
+    static final class Divide extends ArithmeticNode {
+        Divide(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double apply(double a, double b) {
+            if (b == 0)
+                throw new RuntimeError(operator, "Division by 0.");
+            return a / b;
+        }
+
+        @Override
+        Object applyGeneric(Object a, Object b) {
+            checkNumberOperands(a, b);
+            return apply((double) a, (double) b);
+        }
+    }
+
+    static final class Modulo extends ArithmeticNode {
+        Modulo(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double apply(double a, double b) {
+            if (b == 0)
+                throw new RuntimeError(operator, "Division by 0.");
+            return a % b;
+        }
+
+        @Override
+        Object applyGeneric(Object a, Object b) {
+            checkNumberOperands(a, b);
+            return apply((double) a, (double) b);
+        }
+    }
+
+    // Comparisons are only defined on numbers, so they always ask their
+    // operands for unboxed doubles and only fail when they are not.
+    abstract static class CompareNode extends BinaryNode {
+        CompareNode(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        abstract boolean compare(double a, double b);
+
+        @Override
+        Object execute(Environment environment) {
+            double a;
+            try {
+                a = readDouble(left, environment);
+            } catch (UnexpectedResult e) {
+                right.execute(environment);
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+
+            double b;
+            try {
+                b = readDouble(right, environment);
+            } catch (UnexpectedResult e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+
+            return compare(a, b);
+        }
+    }
+
+    static final class Less extends CompareNode {
+        Less(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a < b;
+        }
+    }
+
+    static final class LessEqual extends CompareNode {
+        LessEqual(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a <= b;
+        }
+    }
+
+    static final class Greater extends CompareNode {
+        Greater(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a > b;
+        }
+    }
+
+    static final class GreaterEqual extends CompareNode {
+        GreaterEqual(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a >= b;
+        }
+    }
+
+    abstract static class EqualityNode extends BinaryNode {
+        int state = UNINITIALIZED;
+
+        EqualityNode(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        final boolean equal(Environment environment) {
+            if (state == DOUBLES) {
+                double a;
+                try {
+                    a = readDouble(left, environment);
+                } catch (UnexpectedResult e) {
+                    state = GENERIC;
+                    return Interpreter.isEqual(e.value, right.execute(environment));
+                }
+
+                double b;
+                try {
+                    b = readDouble(right, environment);
+                } catch (UnexpectedResult e) {
+                    state = GENERIC;
+                    return Interpreter.isEqual(a, e.value);
+                }
+
+                // Same answer as Double.equals, which isEqual relies on.
+                return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+            }
+
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+            if (state == UNINITIALIZED)
+                state = a instanceof Double && b instanceof Double ? DOUBLES : GENERIC;
+            return Interpreter.isEqual(a, b);
+        }
+    }
+
+    static final class Equal extends EqualityNode {
+        Equal(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return equal(environment);
+        }
+    }
+
+    static final class NotEqual extends EqualityNode {
+        NotEqual(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return !equal(environment);
+        }
+    }
+
+    static final class Comma extends BinaryNode {
+        Comma(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            left.execute(environment);
+            return right.execute(environment);
+        }
+    }
+
+    static final class Negate extends Node {
+        final Token operator;
+        final Node right;
+
+        Negate(Token operator, Node right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeDouble(environment);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            try {
+                return -right.executeDouble(environment);
+            } catch (UnexpectedResult e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+    }
+
+    static final class Not extends Node {
+        final Node right;
+
+        Not(Node right) {
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return !Interpreter.isTruthy(right.execute(environment));
+        }
+    }
+
+    static final class And extends Node {
+        final Node left;
+        final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (!Interpreter.isTruthy(value))
+                return value;
+            return right.execute(environment);
+        }
+    }
+
+    static final class Or extends Node {
+        final Node left;
+        final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (Interpreter.isTruthy(value))
+                return value;
+            return right.execute(environment);
+        }
+    }
+
+    static final class Ternary extends Node {
+        final Node condition;
+        final Node trueNode;
+        final Node falseNode;
+
+        Ternary(Node condition, Node trueNode, Node falseNode) {
+            this.condition = condition;
+            this.trueNode = trueNode;
+            this.falseNode = falseNode;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (Interpreter.isTruthy(condition.execute(environment)))
+                return trueNode.execute(environment);
+            return falseNode.execute(environment);
+        }
+    }
+
+    // Prefix and postfix ++/-- on a local; delta is +1 or -1.
+    static final class IncrementLocal extends Node {
+        final Token operator;
+        final int depth;
+        final int slot;
+        final double delta;
+        final boolean prefix;
+
+        IncrementLocal(Token operator, int depth, int slot, double delta, boolean prefix) {
+            this.operator = operator;
+            this.depth = depth;
+            this.slot = slot;
+            this.delta = delta;
+            this.prefix = prefix;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = environment.getAt(depth, slot);
+            if (!(value instanceof Double))
+                throw new RuntimeError(operator, "Operand must be a number.");
+
+            Object result = (double) value + delta;
+            environment.assignAt(depth, slot, result);
+            return prefix ? result : value;
+        }
+    }
+
+    static final class IncrementGlobal extends Node {
+        final Token operator;
+        final Environment globals;
+        final Token name;
+        final double delta;
+        final boolean prefix;
+
+        IncrementGlobal(Token operator, Environment globals, Token name, double delta, boolean prefix) {
+            this.operator = operator;
+            this.globals = globals;
+            this.name = name;
+            this.delta = delta;
+            this.prefix = prefix;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = globals.get(name);
+            if (!(value instanceof Double))
+                throw new RuntimeError(operator, "Operand must be a number.");
+
+            Object result = (double) value + delta;
+            globals.assign(name, result);
+            return prefix ? result : value;
+        }
+    }
+
+    // Like the interpreter, reads through the property get and then
+    // evaluates the object expression again to store the result.
+    static final class IncrementProperty extends Node {
+        final Token operator;
+        final Node get;
+        final Node object;
+        final Token name;
+        final double delta;
+        final boolean prefix;
+
+        IncrementProperty(Token operator, Node get, Node object, Token name, double delta, boolean prefix) {
+            this.operator = operator;
+            this.get = get;
+            this.object = object;
+            this.name = name;
+            this.delta = delta;
+            this.prefix = prefix;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = get.execute(environment);
+            if (!(value instanceof Double))
+                throw new RuntimeError(operator, "Operand must be a number.");
+
+            Object instance = object.execute(environment);
+            if (!(instance instanceof MinhppInstance))
+                throw new RuntimeError(name, "Only instances have property.");
+
+            Object result = (double) value + delta;
+            ((MinhppInstance) instance).set(name, result);
+            return prefix ? result : value;
+        }
+    }
+
+    static final class Call extends Node {
+        final Interpreter interpreter;
+        final Node callee;
+        final Token paren;
+        final Node[] arguments;
+        final boolean tail;
+
+        Call(Interpreter interpreter, Node callee, Token paren, Node[] arguments, boolean tail) {
+            this.interpreter = interpreter;
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+            this.tail = tail;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+            return call(interpreter, function, paren, evaluate(arguments, environment), tail);
+        }
+
+        static List<Object> evaluate(Node[] arguments, Environment environment) {
+            List<Object> args = new ArrayList<>(arguments.length);
+            for (Node argument : arguments)
+                args.add(argument.execute(environment));
+            return args;
+        }
+
+        static Object call(Interpreter interpreter, Object function, Token paren, List<Object> args,
+                boolean tail) {
+            if (!(function instanceof MinhppCallable))
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+
+            MinhppCallable callable = (MinhppCallable) function;
+            checkArity(callable.arity(), paren, args);
+            if (callable instanceof MinhppFunction) {
+                MinhppFunction target = (MinhppFunction) callable;
+                return invoke(interpreter, target, target.receiver, args, tail);
+            }
+            return callable.call(interpreter, args);
+        }
+
+        // A call in tail position is handed back to the NodeFunction running
+        // the caller, which runs it in its place, as in the tree walker.
+        static Object invoke(Interpreter interpreter, MinhppFunction function, MinhppInstance receiver,
+                List<Object> args, boolean tail) {
+            if (tail && function instanceof NodeFunction) {
+                interpreter.tailFunction = function;
+                interpreter.tailReceiver = receiver;
+                interpreter.tailArguments = args;
+                return Interpreter.TAIL_CALL;
+            }
+            return function.call(interpreter, receiver, args);
+        }
+
+        static void checkArity(int arity, Token paren, List<Object> args) {
+            if (args.size() != arity) {
+                throw new RuntimeError(paren,
+                        "Expected " + arity + " arguments but got " + args.size() + ".");
+            }
+        }
+    }
+
+    static final class Get extends Node {
+        final Interpreter interpreter;
+        final Node object;
+        final Token name;
+        final PropertyCache cache = new PropertyCache();
+
+        Get(Interpreter interpreter, Node object, Token name) {
+            this.interpreter = interpreter;
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return property(instance(environment));
+        }
+
+        MinhppInstance instance(Environment environment) {
+            Object instance = object.execute(environment);
+            if (!(instance instanceof MinhppInstance))
+                throw new RuntimeError(name, "Only instances have property.");
+            return (MinhppInstance) instance;
+        }
+
+        Object property(MinhppInstance instance) {
+            Object result = cache.get(instance, name);
+            if (result instanceof MinhppFunction && ((MinhppFunction) result).arity() == -1)
+                return ((MinhppFunction) result).call(interpreter, null);
+
+            return result;
+        }
+    }
+
+    // A call whose callee is a property access: methods run on the receiver
+    // without being bound first.
+    static final class Invoke extends Node {
+        final Interpreter interpreter;
+        final Get callee;
+        final Token paren;
+        final Node[] arguments;
+        final boolean tail;
+
+        Invoke(Interpreter interpreter, Get callee, Token paren, Node[] arguments, boolean tail) {
+            this.interpreter = interpreter;
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+            this.tail = tail;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            MinhppInstance instance = callee.instance(environment);
+            MinhppFunction method = callee.cache.method(instance, callee.name);
+
+            if (method != null && method.arity() != -1) {
+                List<Object> args = Call.evaluate(arguments, environment);
+                Call.checkArity(method.arity(), paren, args);
+                return Call.invoke(interpreter, method, instance, args, tail);
+            }
+
+            MinhppList.Method nativeMethod = callee.cache.listMethod(instance, callee.name);
+            if (nativeMethod != null) {
+                List<Object> args = Call.evaluate(arguments, environment);
+                Call.checkArity(nativeMethod.arity, paren, args);
+                return nativeMethod.call((MinhppList) instance, callee.name, args);
+            }
+
+            Object function = callee.property(instance);
+            return Call.call(interpreter, function, paren, Call.evaluate(arguments, environment), tail);
+        }
+    }
+
+    // super.method(...), run on "this" the same way.
+    static final class SuperInvoke extends Node {
+        final Interpreter interpreter;
+        final Super callee;
+        final Token paren;
+        final Node[] arguments;
+        final boolean tail;
+
+        SuperInvoke(Interpreter interpreter, Super callee, Token paren, Node[] arguments, boolean tail) {
+            this.interpreter = interpreter;
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+            this.tail = tail;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            MinhppFunction method = callee.method(environment);
+            MinhppInstance receiver = callee.receiver(environment);
+
+            if (method.arity() != -1) {
+                List<Object> args = Call.evaluate(arguments, environment);
+                Call.checkArity(method.arity(), paren, args);
+                return Call.invoke(interpreter, method, receiver, args, tail);
+            }
+
+            Object function = method.call(interpreter, receiver, null);
+            return Call.call(interpreter, function, paren, Call.evaluate(arguments, environment), tail);
+        }
+    }
+
+    static final class Set extends Node {
+        final Node object;
+        final Token name;
+        final Node value;
+        final PropertyCache cache = new PropertyCache();
+
+        Set(Node object, Token name, Node value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object instance = object.execute(environment);
+            if (!(instance instanceof MinhppInstance))
+                throw new RuntimeError(name, "Only instances have fields.");
+
+            Object result = value.execute(environment);
+            cache.set((MinhppInstance) instance, name, result);
+            return result;
+        }
+    }
+
+    static final class Super extends Node {
+        final Interpreter interpreter;
+        final Token method;
+        final int depth;
+        final int slot;
+
+        Super(Interpreter interpreter, Token method, int depth, int slot) {
+            this.interpreter = interpreter;
+            this.method = method;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            MinhppFunction function = method(environment);
+            MinhppInstance currentInstance = receiver(environment);
+            if (function.arity() == -1)
+                return function.call(interpreter, currentInstance, null);
+
+            return function.bind(currentInstance);
+        }
+
+        MinhppFunction method(Environment environment) {
+            MinhppClass superclass = (MinhppClass) environment.getAt(depth, slot);
+            MinhppFunction function = superclass.findMethod(method.symbol());
+            if (function == null)
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            return function;
+        }
+
+        MinhppInstance receiver(Environment environment) {
+            return (MinhppInstance) environment.getAt(depth - 1, 0);
+        }
+    }
+
+    static final class Lambda extends Node {
+        final Code code;
+
+        Lambda(Code code) {
+            this.code = code;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return new NodeFunction(code.function, code.body, environment, false);
+        }
+    }
+
+    static final class MList extends Node {
+        final Node[] items;
+
+        MList(Node[] items) {
+            this.items = items;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object[] values = new Object[items.length];
+            for (int i = 0; i < values.length; ++i)
+                values[i] = items[i].execute(environment);
+            return new MinhppList(values);
+        }
+    }
+
+    static MinhppList list(Object object, Token bracket) {
+        if (!(object instanceof MinhppList))
+            throw new RuntimeError(bracket, "Only lists can be indexed.");
+        return (MinhppList) object;
+    }
+
+    static double index(Node index, Environment environment, Token bracket) {
+        try {
+            return index.executeDouble(environment);
+        } catch (UnexpectedResult e) {
+            throw new RuntimeError(bracket, "List index must be a number.");
+        }
+    }
+
+    static final class Index extends Node {
+        final Node object;
+        final Token bracket;
+        final Node index;
+
+        Index(Node object, Token bracket, Node index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            MinhppList list = list(object.execute(environment), bracket);
+            return list.get(bracket, index(index, environment, bracket));
+        }
+    }
+
+    static final class SetIndex extends Node {
+        final Node object;
+        final Token bracket;
+        final Node index;
+        final Node value;
+
+        SetIndex(Node object, Token bracket, Node index, Node value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            MinhppList list = list(object.execute(environment), bracket);
+            double i = index(index, environment, bracket);
+            Object result = value.execute(environment);
+            list.set(bracket, i, result);
+            return result;
+        }
+    }
+
+    static final class Expression extends Node {
+        final Node expression;
+        final boolean echo;
+
+        Expression(Node expression, boolean echo) {
+            this.expression = expression;
+            this.echo = echo;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = expression.execute(environment);
+            if (echo)
+                System.out.println(Interpreter.stringify(value));
+            return null;
+        }
+    }
+
+    static final class Var extends Node {
+        final String name;
+        final Node initializer;
+
+        Var(String name, Node initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = null;
+            if (initializer != null)
+                value = initializer.execute(environment);
+
+            environment.define(name, value);
+            return null;
+        }
+    }
+
+    static final class Block extends Node {
+        final Node[] statements;
+
+        Block(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Environment scope = new Environment(environment);
+            for (Node statement : statements) {
+                Object completion = statement.execute(scope);
+                if (completion != null)
+                    return completion;
+            }
+            return null;
+        }
+    }
+
+    static final class If extends Node {
+        final Node condition;
+        final Node trueNode;
+        final Node falseNode;
+
+        If(Node condition, Node trueNode, Node falseNode) {
+            this.condition = condition;
+            this.trueNode = trueNode;
+            this.falseNode = falseNode;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (Interpreter.isTruthy(condition.execute(environment)))
+                return trueNode.execute(environment);
+            else if (falseNode != null)
+                return falseNode.execute(environment);
+            return null;
+        }
+    }
+
+    static final class Loop extends Node {
+        final Node condition;
+        final Node body;
+        final Node increment;
+
+        Loop(Node condition, Node body, Node increment) {
+            this.condition = condition;
+            this.body = body;
+            this.increment = increment;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            while (Interpreter.isTruthy(condition.execute(environment))) {
+                Object completion = body.execute(environment);
+                if (completion == BREAK)
+                    break;
+                else if (completion == RETURN)
+                    return completion;
+
+                if (increment != null)
+                    increment.execute(environment);
+            }
+            return null;
+        }
+    }
+
+    static final class Break extends Node {
+        @Override
+        Object execute(Environment environment) {
+            return BREAK;
+        }
+    }
+
+    static final class Continue extends Node {
+        @Override
+        Object execute(Environment environment) {
+            return CONTINUE;
+        }
+    }
+
+    static final class Return extends Node {
+        final Interpreter interpreter;
+        final Node value;
+
+        Return(Interpreter interpreter, Node value) {
+            this.interpreter = interpreter;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = null;
+            if (value != null)
+                result = value.execute(environment);
+            interpreter.returnValue(result);
+            return RETURN;
+        }
+    }
+
+    static final class Function extends Node {
+        final Code code;
+
+        Function(Code code) {
+            this.code = code;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            environment.define(code.function.name.lexeme,
+                    new NodeFunction(code.function, code.body, environment, false));
+            return null;
+        }
+    }
+
+    static final class Class extends Node {
+        final Token name;
+        final Node superclass;
+        final Token superclassName;
+        final Code[] methods;
+        final Code[] statics;
+
+        Class(Token name, Node superclass, Token superclassName, Code[] methods, Code[] statics) {
+            this.name = name;
+            this.superclass = superclass;
+            this.superclassName = superclassName;
+            this.methods = methods;
+            this.statics = statics;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object parent = null;
+            if (superclass != null) {
+                parent = superclass.execute(environment);
+                if (!(parent instanceof MinhppClass))
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+            }
+
+            Environment staticEnvironment = environment;
+            if (parent != null) {
+                staticEnvironment = new Environment(environment);
+                staticEnvironment.define("super", ((MinhppClass) parent).mClass);
+            }
+
+            Map<Symbol, MinhppFunction> staticMethods = new HashMap<>();
+            for (Code method : statics) {
+                staticMethods.put(method.function.name.symbol(),
+                        new NodeFunction(method.function, method.body, staticEnvironment, false));
+            }
+
+            Environment methodEnvironment = environment;
+            if (parent != null) {
+                methodEnvironment = new Environment(environment);
+                methodEnvironment.define("super", parent);
+            }
+
+            Map<Symbol, MinhppFunction> classMethods = new HashMap<>();
+            for (Code method : methods) {
+                classMethods.put(method.function.name.symbol(),
+                        new NodeFunction(method.function, method.body, methodEnvironment,
+                                method.function.name.lexeme.equals(name.lexeme)));
+            }
+
+            MinhppClass metaclass;
+            if (parent == null) {
+                metaclass = new MinhppClass(null, null, "Meta " + name.lexeme, staticMethods);
+            } else {
+                metaclass = new MinhppClass(null, ((MinhppClass) parent).mClass,
+                        "Meta " + name.lexeme, staticMethods);
+            }
+
+            environment.define(name.lexeme,
+                    new MinhppClass(metaclass, (MinhppClass) parent, name.lexeme, classMethods));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package mpp;
+
+import java.util.List;
+
+import mpp.Expr.Assign;
+import mpp.Expr.Binary;
+import mpp.Expr.Call;
+import mpp.Expr.Get;
+import mpp.Expr.Index;
+import mpp.Expr.Grouping;
+import mpp.Expr.Lambda;
+import mpp.Expr.Literal;
+import mpp.Expr.Logical;
+import mpp.Expr.MList;
+import mpp.Expr.Postfix;
+import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
+import mpp.Expr.Super;
+import mpp.Expr.Ternary;
+import mpp.Expr.This;
+import mpp.Expr.Unary;
+import mpp.Expr.Variable;
+import mpp.Stmt.Block;
+import mpp.Stmt.Break;
+import mpp.Stmt.Class;
+import mpp.Stmt.Continue;
+import mpp.Stmt.Expression;
+import mpp.Stmt.Function;
+import mpp.Stmt.If;
+import mpp.Stmt.Loop;
+import mpp.Stmt.Return;
+import mpp.Stmt.Var;
+
+/**
+ * Turns a resolved AST into a tree of pre-linked {@link Node}s.
+ */
+class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+    private final Interpreter interpreter;
+    private final boolean cmd;
+
+    NodeCompiler(Interpreter interpreter, boolean cmd) {
+        this.interpreter = interpreter;
+        this.cmd = cmd;
+    }
+
+    Node[] compile(List<Stmt> stmts) {
+        Node[] nodes = new Node[stmts.size()];
+        for (int i = 0; i < nodes.length; ++i)
+            nodes[i] = compile(stmts.get(i));
+        return nodes;
+    }
+
+    private Node.Code function(Function function) {
+        return new Node.Code(function, compile(function.body));
+    }
+
+    @Override
+    public Node visitBlock(Block stmt) {
+        return new Node.Block(compile(stmt.statements));
+    }
+
+    @Override
+    public Node visitLoop(Loop stmt) {
+        Node increment = null;
+        if (stmt.increment != null)
+            increment = compile(stmt.increment);
+
+        return new Node.Loop(compile(stmt.condition), compile(stmt.whileStmt), increment);
+    }
+
+    @Override
+    public Node visitIf(If stmt) {
+        Node falseNode = null;
+        if (stmt.falseStmt != null)
+            falseNode = compile(stmt.falseStmt);
+
+        return new Node.If(compile(stmt.condition), compile(stmt.trueStmt), falseNode);
+    }
+
+    @Override
+    public Node visitClass(Class stmt) {
+        Node superclass = null;
+        Token superclassName = null;
+        if (stmt.superclass != null) {
+            superclass = compile(stmt.superclass);
+            superclassName = stmt.superclass.name;
+        }
+
+        Node.Code[] methods = new Node.Code[stmt.methods.size()];
+        for (int i = 0; i < methods.length; ++i)
+            methods[i] = function(stmt.methods.get(i));
+
+        Node.Code[] statics = new Node.Code[stmt.statics.size()];
+        for (int i = 0; i < statics.length; ++i)
+            statics[i] = function(stmt.statics.get(i));
+
+        return new Node.Class(stmt.name, superclass, superclassName, methods, statics);
+    }
+
+    @Override
+    public Node visitVar(Var stmt) {
+        Node initializer = null;
+        if (stmt.initializer != null)
+            initializer = compile(stmt.initializer);
+
+        return new Node.Var(stmt.name.lexeme, initializer);
+    }
+
+    @Override
+    public Node visitExpression(Expression stmt) {
+        return new Node.Expression(compile(stmt.expression), cmd);
+    }
+
+    @Override
+    public Node visitBreak(Break stmt) {
+        return new Node.Break();
+    }
+
+    @Override
+    public Node visitContinue(Continue stmt) {
+        return new Node.Continue();
+    }
+
+    @Override
+    public Node visitReturn(Return stmt) {
+        Node value = null;
+        if (stmt.value != null)
+            value = compile(stmt.value);
+
+        return new Node.Return(interpreter, value);
+    }
+
+    @Override
+    public Node visitFunction(Function stmt) {
+        return new Node.Function(function(stmt));
+    }
+
+    @Override
+    public Node visitBinary(Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+
+        switch (expr.operator.type) {
+            case PLUS:
+                return new Node.Add(left, expr.operator, right);
+            case MINUS:
+                return new Node.Subtract(left, expr.operator, right);
+            case STAR:
+                return new Node.Multiply(left, expr.operator, right);
+            case SLASH:
+                return new Node.Divide(left, expr.operator, right);
+            case PERCEN:
+                return new Node.Modulo(left, expr.operator, right);
+            case COMMA:
+                return new Node.Comma(left, expr.operator, right);
+            case EQUAL_EQUAL:
+                return new Node.Equal(left, expr.operator, right);
+            case BANG_EQUAL:
+                return new Node.NotEqual(left, expr.operator, right);
+            case LESS:
+                return new Node.Less(left, expr.operator, right);
+            case LESS_EQUAL:
+                return new Node.LessEqual(left, expr.operator, right);
+            case GREATER:
+                return new Node.Greater(left, expr.operator, right);
+            case GREATER_EQUAL:
+                return new Node.GreaterEqual(left, expr.operator, right);
+            default:
+                // Mirrors Interpreter.visitBinary, which yields nil here.
+                return new Node.Comma(new Node.Comma(left, expr.operator, right),
+                        expr.operator, new Node.Constant(null));
+        }
+    }
+
+    @Override
+    public Node visitMList(MList expr) {
+        Node[] items = new Node[expr.init.size()];
+        for (int i = 0; i < items.length; ++i)
+            items[i] = compile(expr.init.get(i));
+
+        return new Node.MList(items);
+    }
+
+    @Override
+    public Node visitAssign(Assign expr) {
+        Node value = compile(expr.value);
+
+        if (expr.depth >= 0)
+            return new Node.SetLocal(expr.depth, expr.slot, value);
+        return new Node.SetGlobal(interpreter.globals, expr.name, value);
+    }
+
+    @Override
+    public Node visitTernary(Ternary expr) {
+        return new Node.Ternary(compile(expr.condition), compile(expr.trueExpr), compile(expr.falseExpr));
+    }
+
+    @Override
+    public Node visitLogical(Logical expr) {
+        if (expr.operator.type == TokenType.OR)
+            return new Node.Or(compile(expr.left), compile(expr.right));
+        return new Node.And(compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitLambda(Lambda expr) {
+        return new Node.Lambda(function(expr.function));
+    }
+
+    @Override
+    public Node visitSuper(Super expr) {
+        return new Node.Super(interpreter, expr.method, expr.depth, expr.slot);
+    }
+
+    @Override
+    public Node visitGrouping(Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitGet(Get expr) {
+        return new Node.Get(interpreter, compile(expr.object), expr.name);
+    }
+
+    @Override
+    public Node visitSet(Set expr) {
+        return new Node.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public Node visitIndex(Index expr) {
+        return new Node.Index(compile(expr.object), expr.bracket, compile(expr.index));
+    }
+
+    @Override
+    public Node visitSetIndex(SetIndex expr) {
+        return new Node.SetIndex(compile(expr.object), expr.bracket, compile(expr.index), compile(expr.value));
+    }
+
+    @Override
+    public Node visitThis(This expr) {
+        return variable(expr.depth, expr.slot, expr.keyword);
+    }
+
+    @Override
+    public Node visitLiteral(Literal expr) {
+        return new Node.Constant(expr.value);
+    }
+
+    @Override
+    public Node visitPostfix(Postfix expr) {
+        return increment(expr.operator, expr.left, false);
+    }
+
+    @Override
+    public Node visitCall(Call expr) {
+        Node[] arguments = new Node[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; ++i)
+            arguments[i] = compile(expr.arguments.get(i));
+
+        if (expr.callee instanceof Expr.Get)
+            return new Node.Invoke(interpreter, (Node.Get) compile(expr.callee), expr.paren, arguments,
+                    expr.tail);
+        if (expr.callee instanceof Super)
+            return new Node.SuperInvoke(interpreter, (Node.Super) compile(expr.callee), expr.paren, arguments,
+                    expr.tail);
+        return new Node.Call(interpreter, compile(expr.callee), expr.paren, arguments, expr.tail);
+    }
+
+    @Override
+    public Node visitVariable(Variable expr) {
+        return variable(expr.depth, expr.slot, expr.name);
+    }
+
+    @Override
+    public Node visitUnary(Unary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+                return new Node.Negate(expr.operator, compile(expr.right));
+            case BANG:
+                return new Node.Not(compile(expr.right));
+            case MINUS_MINUS:
+            case PLUS_PLUS:
+                return increment(expr.operator, expr.right, true);
+            default:
+                return new Node.Comma(compile(expr.right), expr.operator, new Node.Constant(null));
+        }
+    }
+
+    private Node increment(Token operator, Expr target, boolean prefix) {
+        double delta = operator.type == TokenType.PLUS_PLUS ? 1 : -1;
+
+        if (target instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) target;
+            if (variable.depth >= 0)
+                return new Node.IncrementLocal(operator, variable.depth, variable.slot, delta, prefix);
+            return new Node.IncrementGlobal(operator, interpreter.globals, variable.name, delta, prefix);
+        }
+
+        Expr.Get get = (Expr.Get) target;
+        return new Node.IncrementProperty(operator, compile(get), compile(get.object), get.name, delta, prefix);
+    }
+
+    private Node variable(int depth, int slot, Token name) {
+        if (depth >= 0)
+            return new Node.GetLocal(depth, slot);
+        return new Node.GetGlobal(interpreter.globals, name);
+    }
+
+    private Node compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+}
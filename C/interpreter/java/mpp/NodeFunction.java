@@ -0,0 +1,67 @@
+package mpp;
+
+import java.util.List;
+
+/**
+ * A function whose body was compiled to a {@link Node} tree.
+ */
+class NodeFunction extends MinhppFunction {
+    final Node[] body;
+
+    NodeFunction(Stmt.Function function, Node[] body, Environment closure, boolean isInitializer) {
+        this(function, body, closure, isInitializer, null);
+    }
+
+    private NodeFunction(Stmt.Function function, Node[] body, Environment closure, boolean isInitializer,
+            MinhppInstance receiver) {
+        super(function, closure, isInitializer, receiver);
+        this.body = body;
+    }
+
+    @Override
+    public MinhppFunction bind(MinhppInstance mInstance) {
+        return new NodeFunction(function, body, closure, isInitializer, mInstance);
+    }
+
+    // Calls the body makes in tail position come back as TAIL_CALL and run
+    // here in turn, as in Interpreter.call.
+    @Override
+    Object call(Interpreter interpreter, MinhppInstance receiver, List<Object> args) {
+        NodeFunction callee = this;
+        for (;;) {
+            Environment environment = callee.environment(receiver, args);
+
+            Profiler profiler = interpreter.profiler;
+            if (profiler != null)
+                profiler.enter(callee.function);
+            Events.FunctionCall event = Events.FunctionCall.start(callee.function);
+            try {
+                // Like Interpreter.executeBlock, any completion ends the body.
+                // The resolver only lets break and continue through inside a
+                // loop of the function itself, so it is a return.
+                for (Node statement : callee.body) {
+                    if (statement.execute(environment) != null)
+                        break;
+                }
+            } finally {
+                if (profiler != null)
+                    profiler.exit();
+                if (event != null)
+                    event.commit();
+            }
+
+            Object value = interpreter.takeReturnValue();
+            if (callee.isInitializer)
+                return receiver;
+            if (value != Interpreter.TAIL_CALL)
+                return value;
+
+            callee = (NodeFunction) interpreter.tailFunction;
+            receiver = interpreter.tailReceiver;
+            args = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+        }
+    }
+}
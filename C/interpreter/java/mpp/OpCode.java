@@ -0,0 +1,59 @@
+package mpp;
+
+/**
+ * Instruction set of the bytecode VM. Unless noted every operand is an
+ * unsigned 16 bit big endian value.
+ */
+final class OpCode {
+    static final byte OP_CONSTANT = 0; // constant
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    static final byte OP_DUP = 5;
+    static final byte OP_SWAP = 6;
+    static final byte OP_GET_LOCAL = 7; // slot
+    static final byte OP_SET_LOCAL = 8; // slot
+    static final byte OP_GET_GLOBAL = 9; // name
+    static final byte OP_SET_GLOBAL = 10; // name
+    static final byte OP_DEFINE = 11; // name, of a global
+    static final byte OP_GET_PROPERTY = 12; // name
+    static final byte OP_SET_PROPERTY = 13; // name
+    static final byte OP_GET_SUPER = 14; // name
+    static final byte OP_EQUAL = 15;
+    static final byte OP_NOT_EQUAL = 16;
+    static final byte OP_GREATER = 17;
+    static final byte OP_GREATER_EQUAL = 18;
+    static final byte OP_LESS = 19;
+    static final byte OP_LESS_EQUAL = 20;
+    static final byte OP_ADD = 21;
+    static final byte OP_SUBTRACT = 22;
+    static final byte OP_MULTIPLY = 23;
+    static final byte OP_DIVIDE = 24;
+    static final byte OP_MODULO = 25;
+    static final byte OP_NOT = 26;
+    static final byte OP_NEGATE = 27;
+    static final byte OP_INCREMENT = 28;
+    static final byte OP_DECREMENT = 29;
+    static final byte OP_ECHO = 30;
+    static final byte OP_JUMP = 31; // offset
+    static final byte OP_JUMP_IF_FALSE = 32; // offset
+    static final byte OP_LOOP = 33; // offset
+    static final byte OP_CALL = 34; // argument count
+    static final byte OP_CLOSURE = 35; // chunk
+    static final byte OP_CLASS = 36; // name, has superclass, statics, methods
+    static final byte OP_LIST = 37; // item count
+    static final byte OP_GET_UPVALUE = 38; // index
+    static final byte OP_SET_UPVALUE = 39; // index
+    static final byte OP_RETURN = 40;
+    static final byte OP_GET_METHOD = 41; // name, cache
+    static final byte OP_INVOKE = 42; // argument count, name
+    static final byte OP_GET_INDEX = 43; // bracket
+    static final byte OP_SET_INDEX = 44; // bracket
+    static final byte OP_CLOSE_UPVALUE = 45;
+    static final byte OP_SUPERCLASS = 46;
+    static final byte OP_GET_SUPER_METHOD = 47; // name
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,411 @@
+package mpp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mpp.Expr.Assign;
+import mpp.Expr.Binary;
+import mpp.Expr.Call;
+import mpp.Expr.Get;
+import mpp.Expr.Grouping;
+import mpp.Expr.Index;
+import mpp.Expr.Lambda;
+import mpp.Expr.Literal;
+import mpp.Expr.Logical;
+import mpp.Expr.MList;
+import mpp.Expr.Postfix;
+import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
+import mpp.Expr.Super;
+import mpp.Expr.Ternary;
+import mpp.Expr.This;
+import mpp.Expr.Unary;
+import mpp.Expr.Variable;
+import mpp.Stmt.Block;
+import mpp.Stmt.Break;
+import mpp.Stmt.Class;
+import mpp.Stmt.Continue;
+import mpp.Stmt.Expression;
+import mpp.Stmt.Function;
+import mpp.Stmt.If;
+import mpp.Stmt.Loop;
+import mpp.Stmt.Return;
+import mpp.Stmt.Var;
+
+/**
+ * Rewrites a resolved program before it runs. Operators whose operands are
+ * all literals are replaced by their result, ternaries, `and` and `or` with
+ * a literal on the left by the side that would run, and `if` statements and
+ * loops whose condition is a literal by the branch that would run, or
+ * nothing. An operator that would raise a runtime error, such as a division
+ * by zero, is left alone so the error is still reported when and where it
+ * happens.
+ *
+ * Nodes are only rebuilt when one of their children changed. Branches and
+ * loop bodies are never declarations, so removing them doesn't move the
+ * slots the resolver gave the locals around them.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    List<Stmt> optimize(List<Stmt> stmts) {
+        List<Stmt> optimized = null;
+        for (int i = 0; i < stmts.size(); ++i) {
+            Stmt stmt = stmts.get(i);
+            Stmt result = optimize(stmt);
+            if (result != stmt && optimized == null)
+                optimized = new ArrayList<>(stmts.subList(0, i));
+            if (optimized != null && result != null)
+                optimized.add(result);
+        }
+        return optimized == null ? stmts : optimized;
+    }
+
+    // Returns null for a statement that would do nothing.
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    // For the places that need a statement even if it would do nothing.
+    private Stmt body(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        return result == null ? new Block(new ArrayList<>()) : result;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> optimized = null;
+        for (int i = 0; i < exprs.size(); ++i) {
+            Expr expr = exprs.get(i);
+            Expr result = optimize(expr);
+            if (result != expr && optimized == null)
+                optimized = new ArrayList<>(exprs.subList(0, i));
+            if (optimized != null)
+                optimized.add(result);
+        }
+        return optimized == null ? exprs : optimized;
+    }
+
+    private List<Function> functions(List<Function> functions) {
+        List<Function> optimized = null;
+        for (int i = 0; i < functions.size(); ++i) {
+            Function function = functions.get(i);
+            Function result = function(function);
+            if (result != function && optimized == null)
+                optimized = new ArrayList<>(functions.subList(0, i));
+            if (optimized != null)
+                optimized.add(result);
+        }
+        return optimized == null ? functions : optimized;
+    }
+
+    private Function function(Function function) {
+        List<Stmt> body = optimize(function.body);
+        if (body == function.body)
+            return function;
+        return new Function(function.name, function.params, body);
+    }
+
+    @Override
+    public Expr visitBinary(Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Literal && right instanceof Literal) {
+            Literal folded = fold(expr.operator, ((Literal) left).value, ((Literal) right).value);
+            if (folded != null)
+                return folded;
+        } else if (left instanceof Literal && expr.operator.type == TokenType.COMMA) {
+            return right;
+        }
+
+        if (left == expr.left && right == expr.right)
+            return expr;
+        return new Binary(left, expr.operator, right);
+    }
+
+    // Null when the operator can't be folded, because it would fail.
+    private static Literal fold(Token operator, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+        double a = numbers ? (Double) left : 0;
+        double b = numbers ? (Double) right : 0;
+
+        switch (operator.type) {
+            case PLUS:
+                if (numbers)
+                    return new Literal(a + b);
+                if (left instanceof String || right instanceof String)
+                    return new Literal(Interpreter.stringify(left) + Interpreter.stringify(right));
+                return null;
+            case MINUS:
+                return numbers ? new Literal(a - b) : null;
+            case STAR:
+                return numbers ? new Literal(a * b) : null;
+            case SLASH:
+                return numbers && b != 0 ? new Literal(a / b) : null;
+            case PERCEN:
+                return numbers && b != 0 ? new Literal(a % b) : null;
+            case COMMA:
+                return new Literal(right);
+            case EQUAL_EQUAL:
+                return new Literal(Interpreter.isEqual(left, right));
+            case BANG_EQUAL:
+                return new Literal(!Interpreter.isEqual(left, right));
+            case LESS:
+                return numbers ? new Literal(a < b) : null;
+            case LESS_EQUAL:
+                return numbers ? new Literal(a <= b) : null;
+            case GREATER:
+                return numbers ? new Literal(a > b) : null;
+            case GREATER_EQUAL:
+                return numbers ? new Literal(a >= b) : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Expr visitMList(MList expr) {
+        List<Expr> init = optimizeAll(expr.init);
+        if (init == expr.init)
+            return expr;
+        return new MList(init);
+    }
+
+    @Override
+    public Expr visitAssign(Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value)
+            return expr;
+
+        Assign assign = new Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitTernary(Ternary expr) {
+        Expr condition = optimize(expr.condition);
+        if (condition instanceof Literal) {
+            if (Interpreter.isTruthy(((Literal) condition).value))
+                return optimize(expr.trueExpr);
+            return optimize(expr.falseExpr);
+        }
+
+        Expr trueExpr = optimize(expr.trueExpr);
+        Expr falseExpr = optimize(expr.falseExpr);
+        if (condition == expr.condition && trueExpr == expr.trueExpr && falseExpr == expr.falseExpr)
+            return expr;
+        return new Ternary(condition, trueExpr, falseExpr);
+    }
+
+    @Override
+    public Expr visitLogical(Logical expr) {
+        Expr left = optimize(expr.left);
+        if (left instanceof Literal) {
+            boolean truthy = Interpreter.isTruthy(((Literal) left).value);
+            if (truthy == (expr.operator.type == TokenType.OR))
+                return left;
+            return optimize(expr.right);
+        }
+
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right)
+            return expr;
+        return new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLambda(Lambda expr) {
+        Function function = function(expr.function);
+        if (function == expr.function)
+            return expr;
+        return new Lambda(function);
+    }
+
+    @Override
+    public Expr visitSuper(Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGrouping(Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitGet(Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object)
+            return expr;
+        return new Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSet(Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value)
+            return expr;
+        return new Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitIndex(Index expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if (object == expr.object && index == expr.index)
+            return expr;
+        return new Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitSetIndex(SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && index == expr.index && value == expr.value)
+            return expr;
+        return new SetIndex(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitThis(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteral(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitPostfix(Postfix expr) {
+        // The operand is a variable or property being assigned to.
+        return expr;
+    }
+
+    @Override
+    public Expr visitCall(Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeAll(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments)
+            return expr;
+
+        Call call = new Call(callee, expr.paren, arguments);
+        call.tail = expr.tail;
+        return call;
+    }
+
+    @Override
+    public Expr visitVariable(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnary(Unary expr) {
+        TokenType type = expr.operator.type;
+        if (type == TokenType.PLUS_PLUS || type == TokenType.MINUS_MINUS)
+            return expr;
+
+        Expr right = optimize(expr.right);
+        if (right instanceof Literal) {
+            Object value = ((Literal) right).value;
+            if (type == TokenType.BANG)
+                return new Literal(!Interpreter.isTruthy(value));
+            if (type == TokenType.MINUS && value instanceof Double)
+                return new Literal(-(Double) value);
+        }
+
+        if (right == expr.right)
+            return expr;
+        return new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Stmt visitBlock(Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements == stmt.statements)
+            return stmt;
+        return new Block(statements);
+    }
+
+    @Override
+    public Stmt visitLoop(Loop stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value))
+            return null;
+
+        Stmt whileStmt = body(stmt.whileStmt);
+        Stmt increment = optimize(stmt.increment);
+        if (condition == stmt.condition && whileStmt == stmt.whileStmt && increment == stmt.increment)
+            return stmt;
+        return new Loop(condition, whileStmt, increment);
+    }
+
+    @Override
+    public Stmt visitIf(If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal) {
+            if (Interpreter.isTruthy(((Literal) condition).value))
+                return optimize(stmt.trueStmt);
+            return optimize(stmt.falseStmt);
+        }
+
+        Stmt trueStmt = body(stmt.trueStmt);
+        Stmt falseStmt = optimize(stmt.falseStmt);
+        if (condition == stmt.condition && trueStmt == stmt.trueStmt && falseStmt == stmt.falseStmt)
+            return stmt;
+        return new If(condition, trueStmt, falseStmt);
+    }
+
+    @Override
+    public Stmt visitClass(Class stmt) {
+        List<Function> methods = functions(stmt.methods);
+        List<Function> statics = functions(stmt.statics);
+        if (methods == stmt.methods && statics == stmt.statics)
+            return stmt;
+        return new Class(stmt.name, stmt.superclass, methods, statics);
+    }
+
+    @Override
+    public Stmt visitVar(Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer)
+            return stmt;
+        return new Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitExpression(Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression)
+            return stmt;
+        return new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitBreak(Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinue(Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturn(Return stmt) {
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value)
+            return stmt;
+        return new Return(stmt.name, value);
+    }
+
+    @Override
+    public Stmt visitFunction(Function stmt) {
+        return function(stmt);
+    }
+}
@@ -3,17 +3,41 @@ package mpp;
 import static mpp.TokenType.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    // Either a whole TokenBuffer, whose tokens are only built when peek()
+    // asks for one, or tokens pulled as the parser advances. `window` then
+    // holds the current token and the three before it, indexed by position
+    // modulo 4, which is all the lookbehind peek() is asked for.
+    private final TokenBuffer buffer;
+    private final Iterator<Token> tokens;
+    private final Token[] window;
     private int current = 0;
+    // The type of peek(0), which check() asks for far more than anything.
+    private TokenType currentType;
 
     public Parser(List<Token> tokens) {
+        this(tokens.iterator());
+    }
+
+    Parser(Iterator<Token> tokens) {
+        this.buffer = null;
         this.tokens = tokens;
+        this.window = new Token[4];
+        window[0] = tokens.next();
+        currentType = window[0].type;
+    }
+
+    Parser(TokenBuffer buffer) {
+        this.buffer = buffer;
+        this.tokens = null;
+        this.window = null;
+        currentType = buffer.type(0);
     }
 
     public List<Stmt> parse() {
@@ -46,7 +70,7 @@ public class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        Token name = consumeIdentifier("Expect class name.");
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
@@ -73,7 +97,7 @@ public class Parser {
         List<Token> parameters = null;
 
         if (check(IDENTIFIER) || !type.equals("lambda"))
-            name = consume(IDENTIFIER, "Expect " + type + " name.");
+            name = consumeIdentifier("Expect " + type + " name.");
 
         if (!type.equals("method") || check(LEFT_PAREN)) {
             parameters = new ArrayList<>();
@@ -83,7 +107,7 @@ public class Parser {
                     if (parameters.size() == 255)
                         error(peek(0), "Can't have more than 255 parameters.");
 
-                    parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                    parameters.add(consumeIdentifier("Expect parameter name."));
                 } while (match(COMMA));
             }
             consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -95,7 +119,7 @@ public class Parser {
     }
 
     private Stmt.Var varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        Token name = consumeIdentifier("Expect variable name.");
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -261,6 +285,9 @@ public class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
 
             throw error(equals, "Invalid assignment value.");
@@ -396,8 +423,13 @@ public class Parser {
             if (match(LEFT_PAREN)) {
                 calleeExpr = finishCall(calleeExpr);
             } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                Token name = consumeIdentifier("Expect property name after '.'.");
                 calleeExpr = new Expr.Get(calleeExpr, name);
+            } else if (match(LEFT_BRAC)) {
+                Token bracket = peek(-1);
+                Expr index = expression();
+                consume(RIGHT_BRAC, "Expect ']' after index.");
+                calleeExpr = new Expr.Index(calleeExpr, bracket, index);
             } else {
                 break;
             }
@@ -442,7 +474,7 @@ public class Parser {
         if (match(SUPER)) {
             Token keyword = peek(-1);
             consume(DOT, "Expect '.' after super.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
+            Token method = consumeIdentifier("Expect superclass method name.");
             return new Expr.Super(keyword, method);
         }
 
@@ -476,14 +508,20 @@ public class Parser {
         throw error(peek(0), "Unidentified primary.");
     }
 
-    private Token consume(TokenType type, String errMsg) {
+    private void consume(TokenType type, String errMsg) {
         if (check(type)) {
-            return advance();
+            advance();
+            return;
         }
 
         throw error(peek(0), errMsg);
     }
 
+    private Token consumeIdentifier(String errMsg) {
+        consume(IDENTIFIER, errMsg);
+        return peek(-1);
+    }
+
     private ParseError error(Token token, String msg) {
         Minhpp.error(token, msg);
         return new ParseError();
@@ -493,10 +531,10 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (peek(-1).type == SEMICOLON)
+            if (type(-1) == SEMICOLON)
                 return;
 
-            switch (peek(0).type) {
+            switch (currentType) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -522,23 +560,37 @@ public class Parser {
         return false;
     }
 
-    private Token advance() {
-        if (!isAtEnd())
+    private void advance() {
+        if (!isAtEnd()) {
             current++;
-        return peek(-1);
+            if (buffer != null) {
+                currentType = buffer.type(current);
+            } else {
+                window[current & 3] = tokens.next();
+                currentType = window[current & 3].type;
+            }
+        }
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek(0).type == type;
+        return currentType == type;
     }
 
     private boolean isAtEnd() {
-        return peek(0).type == EOF;
+        return currentType == EOF;
+    }
+
+    private TokenType type(int index) {
+        if (buffer != null)
+            return buffer.type(current + index);
+        return window[(current + index) & 3].type;
     }
 
     private Token peek(int index) {
-        return tokens.get(current + index);
+        if (buffer != null)
+            return buffer.token(current + index);
+        return window[(current + index) & 3];
     }
 }
@@ -0,0 +1,123 @@
+package mpp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sampling profiler for scripts. Function calls push onto a shadow stack of
+ * script-level frames, and a daemon thread copies that stack every
+ * millisecond. The samples are written in the collapsed-stack format read
+ * by flame-graph tools, one "frame;frame;frame count" line per distinct
+ * stack, where a frame is the function name and its declaration line.
+ *
+ * The interpreter thread only stores into an array and bumps a counter per
+ * call. The fields are deliberately not volatile: the sampler reads them
+ * racily, so a sample taken mid-call may be off by a frame, but calls pay
+ * no fences while profiling.
+ */
+class Profiler {
+    private static final long INTERVAL_MILLIS = 1;
+
+    private Stmt.Function[] frames = new Stmt.Function[64];
+    private int depth = 0;
+
+    // Only touched by the sampler thread until it is stopped.
+    private final Map<String, int[]> samples = new HashMap<>();
+    private final Map<Stmt.Function, String> labels = new HashMap<>();
+    private final StringBuilder stack = new StringBuilder();
+    private final Thread sampler;
+
+    Profiler() {
+        sampler = new Thread(this::sample, "mpp-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void enter(Stmt.Function function) {
+        Stmt.Function[] frames = this.frames;
+        int depth = this.depth;
+        if (depth == frames.length) {
+            Stmt.Function[] grown = new Stmt.Function[depth * 2];
+            System.arraycopy(frames, 0, grown, 0, depth);
+            this.frames = frames = grown;
+        }
+        frames[depth] = function;
+        this.depth = depth + 1;
+    }
+
+    void exit() {
+        if (depth > 0)
+            depth--;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // Drops the frames a runtime error unwound past without exiting them.
+    void unwind(int depth) {
+        if (this.depth > depth)
+            this.depth = depth;
+    }
+
+    private void sample() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            synchronized (samples) {
+                record();
+            }
+        }
+    }
+
+    private void record() {
+        Stmt.Function[] frames = this.frames;
+        int depth = Math.min(this.depth, frames.length);
+
+        stack.setLength(0);
+        stack.append("<script>");
+        for (int i = 0; i < depth; ++i) {
+            Stmt.Function function = frames[i];
+            if (function != null)
+                stack.append(';').append(label(function));
+        }
+
+        String key = stack.toString();
+        int[] count = samples.get(key);
+        if (count == null)
+            samples.put(key, new int[] { 1 });
+        else
+            count[0]++;
+    }
+
+    private String label(Stmt.Function function) {
+        String label = labels.get(function);
+        if (label == null) {
+            if (function.name == null)
+                label = "<lambda>";
+            else
+                label = function.name.lexeme + ":" + function.name.line;
+            labels.put(function, label);
+        }
+        return label;
+    }
+
+    void write(String path) throws IOException {
+        sampler.interrupt();
+
+        synchronized (samples) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+                for (Map.Entry<String, int[]> sample : samples.entrySet())
+                    out.println(sample.getKey() + " " + sample.getValue()[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package mpp;
+
+/**
+ * Inline cache of one property access site, keyed on the receiver's
+ * {@link Shape}. A shape belongs to a single class, so for a read it pins
+ * down both the field index and, when there is no such field, the method
+ * the name resolves to; for a write it records the index and the shape the
+ * instance ends up with. Lists all share one shape, which pins down the
+ * list native instead. Up to {@link #SIZE} shapes are kept; a site that
+ * sees more than that stays megamorphic and takes the slow path.
+ */
+final class PropertyCache {
+    private static final int SIZE = 4;
+
+    private final Shape[] shapes = new Shape[SIZE];
+    // Field index, or -1 when the name is not a field of the shape.
+    private final int[] indexes = new int[SIZE];
+    private final MinhppFunction[] methods = new MinhppFunction[SIZE];
+    private final MinhppList.Method[] natives = new MinhppList.Method[SIZE];
+    private final Shape[] targets = new Shape[SIZE];
+    private int count = 0;
+
+    Object get(MinhppInstance instance, Token name) {
+        int entry = lookUp(instance, name);
+        if (entry < 0)
+            return instance.get(name);
+
+        if (indexes[entry] >= 0)
+            return instance.values[indexes[entry]];
+        if (methods[entry] != null)
+            return methods[entry].bind(instance);
+        if (natives[entry] != null)
+            return ((MinhppList) instance).bind(name, natives[entry]);
+
+        // Neither a field nor a method: report the missing property.
+        return instance.get(name);
+    }
+
+    /**
+     * The method `name` resolves to on the instance, unbound, so a call site
+     * can run it on the receiver directly. Null when the name is a field or
+     * undefined, get() then tells which.
+     */
+    MinhppFunction method(MinhppInstance instance, Token name) {
+        int entry = lookUp(instance, name);
+        if (entry >= 0)
+            return methods[entry];
+
+        if (instance.mClass == null || instance.shape.indexOf(name.symbol()) >= 0)
+            return null;
+        return instance.mClass.findMethod(name.symbol());
+    }
+
+    /**
+     * The list native `name` resolves to, so a call site can run it on the
+     * list without binding it. Null when the instance is not a list or
+     * lists have no such native.
+     */
+    MinhppList.Method listMethod(MinhppInstance instance, Token name) {
+        if (!(instance instanceof MinhppList))
+            return null;
+
+        int entry = lookUp(instance, name);
+        if (entry >= 0)
+            return natives[entry];
+        return MinhppList.method(name.symbol());
+    }
+
+    void set(MinhppInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+
+        int entry = find(shape);
+        if (entry >= 0) {
+            if (targets[entry] != shape)
+                instance.transition(targets[entry]);
+            instance.values[indexes[entry]] = value;
+            return;
+        }
+
+        // Only stores the instance accepted get cached; classes and lists
+        // refuse them in set().
+        instance.set(name, value);
+        add(shape, instance.shape.indexOf(name.symbol()), null, null, instance.shape);
+    }
+
+    // Entry for the instance's shape, filled in on a miss; -1 once the site
+    // is megamorphic and the shape has no entry.
+    private int lookUp(MinhppInstance instance, Token name) {
+        Shape shape = instance.shape;
+        int entry = find(shape);
+        if (entry >= 0)
+            return entry;
+
+        // Classes never change their methods once built, so the result,
+        // including a miss, holds for as long as the shape is alive.
+        int index = shape.indexOf(name.symbol());
+        MinhppFunction method = null;
+        MinhppList.Method nativeMethod = null;
+        if (index < 0 && instance.mClass != null)
+            method = instance.mClass.findMethod(name.symbol());
+        else if (index < 0 && instance instanceof MinhppList)
+            nativeMethod = MinhppList.method(name.symbol());
+        return add(shape, index, method, nativeMethod, shape);
+    }
+
+    private int find(Shape shape) {
+        for (int i = 0; i < count; ++i) {
+            if (shapes[i] == shape)
+                return i;
+        }
+        return -1;
+    }
+
+    private int add(Shape shape, int index, MinhppFunction method, MinhppList.Method nativeMethod,
+            Shape target) {
+        if (count == SIZE)
+            return -1;
+
+        shapes[count] = shape;
+        indexes[count] = index;
+        methods[count] = method;
+        natives[count] = nativeMethod;
+        targets[count] = target;
+        return count++;
+    }
+}
@@ -11,6 +11,7 @@ import mpp.Expr.Assign;
 import mpp.Expr.Binary;
 import mpp.Expr.Call;
 import mpp.Expr.Get;
+import mpp.Expr.Index;
 import mpp.Expr.Grouping;
 import mpp.Expr.Lambda;
 import mpp.Expr.Literal;
@@ -18,6 +19,7 @@ import mpp.Expr.Logical;
 import mpp.Expr.MList;
 import mpp.Expr.Postfix;
 import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
 import mpp.Expr.Super;
 import mpp.Expr.Ternary;
 import mpp.Expr.This;
@@ -50,22 +52,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private class LocalVariable {
         VarState state;
         Token name;
+        final int slot;
 
-        LocalVariable(Token name, VarState state) {
+        LocalVariable(Token name, VarState state, int slot) {
             this.name = name;
             this.state = state;
+            this.slot = slot;
         }
     }
 
     private boolean inLoop = false;
     private ClassType currentClass = ClassType.NONE;
     private FunctionType currentFunction = FunctionType.NONE;
-    private final Interpreter interpreter;
-    private Stack<Map<String, LocalVariable>> scopes = new Stack<>();
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
+    private Stack<Map<Symbol, LocalVariable>> scopes = new Stack<>();
 
     public void resolve(List<Stmt> stmts) {
         for (Stmt stmt : stmts)
@@ -82,12 +81,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLoop(Loop stmt) {
+        boolean enclosingLoop = inLoop;
         inLoop = true;
         resolve(stmt.condition);
         resolve(stmt.whileStmt);
         if (stmt.increment != null)
             resolve(stmt.increment);
-        inLoop = false;
+        inLoop = enclosingLoop;
         return null;
     }
 
@@ -147,11 +147,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INIT)
                 Minhpp.error(stmt.name, "Can't return a value from an initializer.");
+            else
+                markTail(stmt.value);
             resolve(stmt.value);
         }
         return null;
     }
 
+    // Marks the calls whose value would be returned as is, which the
+    // interpreter runs in place of the returning function.
+    private void markTail(Expr expr) {
+        if (expr instanceof Call) {
+            ((Call) expr).tail = true;
+        } else if (expr instanceof Ternary) {
+            markTail(((Ternary) expr).trueExpr);
+            markTail(((Ternary) expr).falseExpr);
+        } else if (expr instanceof Logical) {
+            markTail(((Logical) expr).right);
+        } else if (expr instanceof Grouping) {
+            markTail(((Grouping) expr).expression);
+        }
+    }
+
     @Override
     public Void visitFunction(Function stmt) {
         declare(stmt.name);
@@ -192,6 +209,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLambda(Lambda expr) {
+        resolveFunction(expr.function, FunctionType.FUNCTION);
         return null;
     }
 
@@ -249,19 +267,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 currentClass = ClassType.SUBCLASS;
                 resolve(stmt.superclass);
                 startScope();
-                scopes.peek().put("super",
+                scopes.peek().put(Symbol.of("super"),
                         new LocalVariable(
                                 new Token(SUPER, "super", null, 0),
-                                VarState.USED));
+                                VarState.USED, 0));
             }
         }
 
-        startScope();
-        scopes.peek().put("this",
-                new LocalVariable(
-                        new Token(THIS, "this", null, 0),
-                        VarState.USED));
-
         for (Stmt.Function method : stmt.statics) {
             if (method.params == null)
                 resolveFunction(method, FunctionType.GETTER);
@@ -278,8 +290,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 resolveFunction(method, FunctionType.METHOD);
         }
 
-        endScope();
-
         if (stmt.superclass != null) {
             endScope();
         }
@@ -302,6 +312,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndex(Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndex(SetIndex expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitThis(This expr) {
         if (currentClass == ClassType.NONE) {
@@ -322,13 +347,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void startScope() {
-        scopes.push(new HashMap<String, LocalVariable>());
+        scopes.push(new HashMap<Symbol, LocalVariable>());
     }
 
     private void endScope() {
         if (scopes.isEmpty())
             return;
-        Map<String, LocalVariable> scope = scopes.pop();
+        Map<Symbol, LocalVariable> scope = scopes.pop();
         for (LocalVariable variable : scope.values()) {
             if (variable.state == VarState.UNUSED)
                 Minhpp.warning(variable.name, "Variable " + variable.name.lexeme + " is not used locally.");
@@ -339,31 +364,62 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (scopes.isEmpty())
             return;
 
-        Map<String, LocalVariable> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        Map<Symbol, LocalVariable> scope = scopes.peek();
+        if (scope.containsKey(name.symbol())) {
             Minhpp.error(name, "A variable with this name already exists in this scope.");
         }
-        scope.put(name.lexeme, new LocalVariable(name, VarState.UNUSED));
+        scope.put(name.symbol(), new LocalVariable(name, VarState.UNUSED, scope.size()));
     }
 
     private void resolveLocal(Expr expr, Token name, boolean isUsed) {
         for (int i = scopes.size() - 1; i >= 0; --i) {
-            Map<String, LocalVariable> scope = scopes.get(i);
-            if (scope.containsKey(name.lexeme)) {
+            Map<Symbol, LocalVariable> scope = scopes.get(i);
+            LocalVariable variable = scope.get(name.symbol());
+            if (variable != null) {
                 if (isUsed)
-                    scope.get(name.lexeme).state = VarState.USED;
+                    variable.state = VarState.USED;
 
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+                bind(expr, scopes.size() - 1 - i, variable.slot);
                 return;
             }
         }
     }
 
+    // Stores where the name lives on the node itself. Nodes that are never
+    // bound keep depth -1 and are looked up in the globals.
+    static void bind(Expr expr, int depth, int slot) {
+        if (expr instanceof Variable) {
+            ((Variable) expr).depth = depth;
+            ((Variable) expr).slot = slot;
+        } else if (expr instanceof Assign) {
+            ((Assign) expr).depth = depth;
+            ((Assign) expr).slot = slot;
+        } else if (expr instanceof This) {
+            ((This) expr).depth = depth;
+            ((This) expr).slot = slot;
+        } else {
+            ((Super) expr).depth = depth;
+            ((Super) expr).slot = slot;
+        }
+    }
+
     private void resolveFunction(Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        // A function body can't break or continue the loop it is declared in.
+        boolean enclosingLoop = inLoop;
+        inLoop = false;
         startScope();
 
+        // Methods get their receiver in the first slot of their own scope,
+        // so calling one doesn't need a separate environment for it.
+        if (type != FunctionType.FUNCTION) {
+            scopes.peek().put(Symbol.of("this"),
+                    new LocalVariable(
+                            new Token(THIS, "this", null, 0),
+                            VarState.USED, 0));
+        }
+
         if (type != FunctionType.GETTER) {
             for (Token param : function.params) {
                 declare(param);
@@ -373,6 +429,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         resolve(function.body);
         endScope();
+        inLoop = enclosingLoop;
         currentFunction = enclosingFunction;
     }
 
@@ -0,0 +1,100 @@
+package mpp;
+
+import java.util.ArrayDeque;
+
+/**
+ * A string built by concatenation and not yet copied into one piece. Adding
+ * to a long string makes a rope holding both halves instead of copying
+ * them, so a loop doing `s = s + x` takes linear rather than quadratic time
+ * and garbage. The characters are only copied out the first time the rope
+ * is looked at as a whole (printed, compared or handed to a native) and the
+ * result is kept.
+ *
+ * Scripts can't tell a rope from a String: wherever the interpreters check
+ * for a string they use {@link #isString}, and equality flattens ropes
+ * before comparing.
+ */
+final class Rope implements CharSequence {
+    // Results shorter than this are copied right away; a rope over a few
+    // short pieces would cost more than it saves.
+    private static final int MIN_LENGTH = 64;
+
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    // The `+` of two values at least one of which is a string.
+    static Object concat(Object left, Object right) {
+        CharSequence a = text(left);
+        CharSequence b = text(right);
+        if (a.length() == 0)
+            return b;
+        if (b.length() == 0)
+            return a;
+        if (a.length() + b.length() < MIN_LENGTH)
+            return a.toString().concat(b.toString());
+        return new Rope(a, b);
+    }
+
+    private static CharSequence text(Object value) {
+        if (value instanceof String || value instanceof Rope)
+            return (CharSequence) value;
+        return Interpreter.stringify(value);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    // Copies the pieces out in order with a stack of its own, as the ropes
+    // built by a loop nest as deep as the loop ran.
+    @Override
+    public String toString() {
+        if (flat != null)
+            return flat;
+
+        char[] chars = new char[length];
+        int position = 0;
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                pending.push(((Rope) piece).right);
+                pending.push(((Rope) piece).left);
+                continue;
+            }
+
+            String text = piece.toString();
+            text.getChars(0, text.length(), chars, position);
+            position += text.length();
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+}
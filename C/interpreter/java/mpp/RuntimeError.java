@@ -2,9 +2,19 @@ package mpp;
 
 public class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
 
     public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.line;
+        Events.RuntimeError.emit(message, line);
+    }
+
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
+        Events.RuntimeError.emit(message, line);
     }
 }
@@ -1,17 +1,36 @@
 package mpp;
 
 import static mpp.TokenType.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+/**
+ * Turns source text into tokens one at a time, as {@link #next()} is called.
+ * Characters are pulled from a {@link Reader} into a window that only has
+ * to hold the token being scanned, so the whole source is never in memory
+ * at once. Once the source runs out, {@link #next()} keeps returning EOF.
+ */
+class Scanner implements Iterator<Token> {
+    private final Reader reader;
+    private char[] buffer;
+    // Buffer positions: chars before `start` belong to tokens already
+    // returned, those from `limit` on haven't been read yet.
+    private int limit = 0;
     private int start = 0;
     private int current = 0;
+    private boolean drained = false;
     private int line = 1;
+    private Token token = null;
+    private boolean done = false;
+    // Set while scanBuffer() records tokens as offsets instead.
+    private TokenBuffer into = null;
 
     private static final Map<String, TokenType> keywords = new HashMap<>();
     static {
@@ -35,22 +54,100 @@ class Scanner {
         keywords.put("static", STATIC);
     }
 
+    // Source already in memory is scanned in place instead of being read.
     Scanner(String source) {
-        this.source = source;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+        this.drained = true;
+    }
+
+    Scanner(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[4096];
     }
 
     List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        do {
+            tokens.add(next());
+        } while (!done);
+        return tokens;
+    }
+
+    /**
+     * Scans all of an in-memory source into a {@link TokenBuffer} without
+     * building a Token or lexeme per token.
+     */
+    TokenBuffer scanBuffer() {
+        if (reader != null)
+            throw new IllegalStateException("Only in-memory sources can be scanned into a buffer.");
+
+        into = new TokenBuffer(buffer);
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
+        into.add(EOF, current, 0, line, into.intern(current, 0));
+        done = true;
+        return into;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public Token next() {
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+            if (token != null) {
+                Token next = token;
+                token = null;
+                return next;
+            }
+        }
+
+        done = true;
+        return new Token(EOF, "", null, line);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill(0);
+    }
+
+    // Makes sure the char `ahead` places past `current` is buffered, reading
+    // more of the source if needed. Returns false at the end of the source.
+    private boolean fill(int ahead) {
+        while (current + ahead >= limit) {
+            if (drained)
+                return false;
+
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                current -= start;
+                start = 0;
+            }
+            if (limit == buffer.length) {
+                char[] grown = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, limit);
+                buffer = grown;
+            }
+
+            try {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0)
+                    drained = true;
+                else
+                    limit += read;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
     }
 
     private void scanToken() {
@@ -175,7 +272,14 @@ class Scanner {
         while (isAlphaNumeric(peek(0)))
             advance();
 
-        String text = source.substring(start, current);
+        if (into != null) {
+            int name = into.intern(start, current - start);
+            TokenType type = keywords.get(into.name(name));
+            into.add(type == null ? IDENTIFIER : type, start, current - start, line, name);
+            return;
+        }
+
+        String text = new String(buffer, start, current - start);
         TokenType type = keywords.get(text);
         if (type == null)
             type = IDENTIFIER;
@@ -196,8 +300,7 @@ class Scanner {
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING);
     }
 
     private boolean isDigit(char c) {
@@ -214,7 +317,7 @@ class Scanner {
                 advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
     /*
@@ -226,15 +329,15 @@ class Scanner {
      * 
      */
     private char peek(int index) {
-        if (current + index >= source.length())
+        if (current + index >= limit && !fill(index))
             return '\0';
-        return source.charAt(current + index);
+        return buffer[current + index];
     }
 
     private boolean match(char expected) {
         if (isAtEnd())
             return false;
-        if (source.charAt(current) != expected)
+        if (buffer[current] != expected)
             return false;
 
         current++;
@@ -242,15 +345,22 @@ class Scanner {
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++];
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
+        if (into != null) {
+            boolean literal = type == STRING || type == NUMBER;
+            into.add(type, start, current - start, line, literal ? -1 : into.intern(start, current - start));
+            return;
+        }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = new String(buffer, start, current - start);
+        Object literal = null;
+        if (type == STRING)
+            literal = new String(buffer, start + 1, current - start - 2);
+        else if (type == NUMBER)
+            literal = Double.parseDouble(text);
+        token = new Token(type, text, literal, line);
     }
 }
@@ -0,0 +1,720 @@
+package mpp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import mpp.Expr.Assign;
+import mpp.Expr.Binary;
+import mpp.Expr.Call;
+import mpp.Expr.Get;
+import mpp.Expr.Grouping;
+import mpp.Expr.Index;
+import mpp.Expr.Lambda;
+import mpp.Expr.Literal;
+import mpp.Expr.Logical;
+import mpp.Expr.MList;
+import mpp.Expr.Postfix;
+import mpp.Expr.Set;
+import mpp.Expr.SetIndex;
+import mpp.Expr.Super;
+import mpp.Expr.Ternary;
+import mpp.Expr.This;
+import mpp.Expr.Unary;
+import mpp.Expr.Variable;
+import mpp.Stmt.Block;
+import mpp.Stmt.Break;
+import mpp.Stmt.Class;
+import mpp.Stmt.Continue;
+import mpp.Stmt.Expression;
+import mpp.Stmt.Function;
+import mpp.Stmt.If;
+import mpp.Stmt.Loop;
+import mpp.Stmt.Return;
+import mpp.Stmt.Var;
+
+/**
+ * Resolved programs saved to disk so running an unchanged script again skips
+ * the scanner, parser and resolver. Each entry is a file named after the
+ * SHA-256 of the source holding the syntax tree in a tagged binary form,
+ * the resolver's (depth, slot) for every variable, `this` and `super`, and
+ * the warnings the resolver printed, which are printed again on a hit.
+ * Entries are memory-mapped when loaded. The header carries a CRC32 of
+ * the rest of the file; an entry written by a different format version,
+ * failing the checksum, or one that can't be decoded counts as a miss.
+ */
+final class ScriptCache {
+    private static final int MAGIC = 0x4d505043; // "MPPC"
+    private static final int VERSION = 5;
+
+    private static final byte NULL = 0;
+
+    private static final byte BINARY = 1;
+    private static final byte LIST = 2;
+    private static final byte ASSIGN = 3;
+    private static final byte TERNARY = 4;
+    private static final byte LOGICAL = 5;
+    private static final byte LAMBDA = 6;
+    private static final byte SUPER = 7;
+    private static final byte GROUPING = 8;
+    private static final byte GET = 9;
+    private static final byte SET = 10;
+    private static final byte INDEX = 11;
+    private static final byte SET_INDEX = 12;
+    private static final byte THIS = 13;
+    private static final byte LITERAL = 14;
+    private static final byte POSTFIX = 15;
+    private static final byte CALL = 16;
+    private static final byte VARIABLE = 17;
+    private static final byte UNARY = 18;
+
+    private static final byte BLOCK = 32;
+    private static final byte LOOP = 33;
+    private static final byte IF = 34;
+    private static final byte CLASS = 35;
+    private static final byte VAR = 36;
+    private static final byte EXPRESSION = 37;
+    private static final byte BREAK = 38;
+    private static final byte CONTINUE = 39;
+    private static final byte RETURN = 40;
+    private static final byte FUNCTION = 41;
+
+    private static final byte DOUBLE = 1;
+    private static final byte STRING = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Path directory;
+
+    ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // The resolved statements cached for `source`, or null when there is no
+    // usable entry.
+    List<Stmt> load(byte[] source) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(entry(source), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        // The resolver's depths and slots are trusted once decoded, so a
+        // damaged entry must never get that far.
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                return null;
+            int checksum = in.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(in.slice());
+            if ((int) crc.getValue() != checksum)
+                return null;
+
+            Reader reader = new Reader(in);
+            List<String> warnings = new ArrayList<>();
+            for (int i = reader.count(); i > 0; --i)
+                warnings.add(reader.string());
+            List<Stmt> statements = reader.stmts();
+            if (in.hasRemaining())
+                return null;
+
+            for (String warning : warnings)
+                System.err.println(warning);
+            return statements;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    void store(byte[] source, List<Stmt> statements, List<String> warnings) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        Writer writer = new Writer(new DataOutputStream(payload));
+        try {
+            writer.out.writeInt(warnings.size());
+            for (String warning : warnings)
+                writer.string(warning);
+            writer.stmts(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt((int) crc.getValue());
+        payload.writeTo(bytes);
+
+        // Written aside and moved into place so a concurrent run never maps
+        // a half-written entry.
+        Files.createDirectories(directory);
+        Path entry = entry(source);
+        Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+        Files.write(temporary, bytes.toByteArray());
+        Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path entry(byte[] source) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest)
+            name.append(String.format("%02x", b));
+        return directory.resolve(name.append(".mppc").toString());
+    }
+
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final DataOutputStream out;
+        // Each distinct string is written once, later uses refer to it by
+        // the order it was first written in.
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void stmts(List<? extends Stmt> stmts) {
+            writeInt(stmts.size());
+            for (Stmt stmt : stmts)
+                stmt(stmt);
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null)
+                writeByte(NULL);
+            else
+                stmt.accept(this);
+        }
+
+        private void exprs(List<Expr> exprs) {
+            writeInt(exprs.size());
+            for (Expr expr : exprs)
+                expr(expr);
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null)
+                writeByte(NULL);
+            else
+                expr.accept(this);
+        }
+
+        private void local(int depth, int slot) {
+            writeInt(depth);
+            writeInt(slot);
+        }
+
+        private void token(Token token) {
+            if (token == null) {
+                writeByte(-1);
+                return;
+            }
+
+            writeByte(token.type.ordinal());
+            string(token.lexeme);
+            literal(token.literal);
+            writeInt(token.line);
+        }
+
+        private void tokens(List<Token> tokens) {
+            if (tokens == null) {
+                writeInt(-1);
+                return;
+            }
+
+            writeInt(tokens.size());
+            for (Token token : tokens)
+                token(token);
+        }
+
+        private void literal(Object value) {
+            if (value == null) {
+                writeByte(NULL);
+            } else if (value instanceof Double) {
+                writeByte(DOUBLE);
+                try {
+                    out.writeDouble((Double) value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                string((String) value);
+            } else {
+                writeByte((Boolean) value ? TRUE : FALSE);
+            }
+        }
+
+        void string(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+
+            writeInt(strings.size());
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitBinary(Binary expr) {
+            writeByte(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitMList(MList expr) {
+            writeByte(LIST);
+            exprs(expr.init);
+            return null;
+        }
+
+        @Override
+        public Void visitAssign(Assign expr) {
+            writeByte(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            local(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitTernary(Ternary expr) {
+            writeByte(TERNARY);
+            expr(expr.condition);
+            expr(expr.trueExpr);
+            expr(expr.falseExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitLogical(Logical expr) {
+            writeByte(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLambda(Lambda expr) {
+            writeByte(LAMBDA);
+            visitFunction(expr.function);
+            return null;
+        }
+
+        @Override
+        public Void visitSuper(Super expr) {
+            writeByte(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            local(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitGrouping(Grouping expr) {
+            writeByte(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitGet(Get expr) {
+            writeByte(GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSet(Set expr) {
+            writeByte(SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitIndex(Index expr) {
+            writeByte(INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndex(SetIndex expr) {
+            writeByte(SET_INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitThis(This expr) {
+            writeByte(THIS);
+            token(expr.keyword);
+            local(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteral(Literal expr) {
+            writeByte(LITERAL);
+            literal(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPostfix(Postfix expr) {
+            writeByte(POSTFIX);
+            token(expr.operator);
+            expr(expr.left);
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call expr) {
+            writeByte(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            exprs(expr.arguments);
+            writeByte(expr.tail ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable expr) {
+            writeByte(VARIABLE);
+            token(expr.name);
+            local(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitUnary(Unary expr) {
+            writeByte(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(Block stmt) {
+            writeByte(BLOCK);
+            stmts(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitLoop(Loop stmt) {
+            writeByte(LOOP);
+            expr(stmt.condition);
+            stmt(stmt.whileStmt);
+            stmt(stmt.increment);
+            return null;
+        }
+
+        @Override
+        public Void visitIf(If stmt) {
+            writeByte(IF);
+            expr(stmt.condition);
+            stmt(stmt.trueStmt);
+            stmt(stmt.falseStmt);
+            return null;
+        }
+
+        @Override
+        public Void visitClass(Class stmt) {
+            writeByte(CLASS);
+            token(stmt.name);
+            expr(stmt.superclass);
+            stmts(stmt.methods);
+            stmts(stmt.statics);
+            return null;
+        }
+
+        @Override
+        public Void visitVar(Var stmt) {
+            writeByte(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitExpression(Expression stmt) {
+            writeByte(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitBreak(Break stmt) {
+            writeByte(BREAK);
+            token(stmt.name);
+            return null;
+        }
+
+        @Override
+        public Void visitContinue(Continue stmt) {
+            writeByte(CONTINUE);
+            token(stmt.name);
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return stmt) {
+            writeByte(RETURN);
+            token(stmt.name);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitFunction(Function stmt) {
+            writeByte(FUNCTION);
+            token(stmt.name);
+            tokens(stmt.params);
+            stmts(stmt.body);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        // A count or length read from the entry. Every item takes at least
+        // a byte, so one larger than what is left is damage, and is caught
+        // before anything is allocated for it.
+        int count() {
+            int count = in.getInt();
+            if (count < 0 || count > in.remaining())
+                throw new IllegalArgumentException("Bad count " + count + ".");
+            return count;
+        }
+
+        List<Stmt> stmts() {
+            int count = count();
+            List<Stmt> stmts = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                stmts.add(stmt());
+            return stmts;
+        }
+
+        private List<Stmt.Function> functions() {
+            int count = count();
+            List<Stmt.Function> functions = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                functions.add((Stmt.Function) stmt());
+            return functions;
+        }
+
+        private Stmt stmt() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BLOCK:
+                    return new Block(stmts());
+                case LOOP:
+                    return new Loop(expr(), stmt(), stmt());
+                case IF:
+                    return new If(expr(), stmt(), stmt());
+                case CLASS:
+                    return new Class(token(), (Variable) expr(), functions(), functions());
+                case VAR:
+                    return new Var(token(), expr());
+                case EXPRESSION:
+                    return new Expression(expr());
+                case BREAK:
+                    return new Break(token());
+                case CONTINUE:
+                    return new Continue(token());
+                case RETURN:
+                    return new Return(token(), expr());
+                case FUNCTION:
+                    return new Function(token(), tokens(), stmts());
+                default:
+                    throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        private List<Expr> exprs() {
+            int count = count();
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                exprs.add(expr());
+            return exprs;
+        }
+
+        private Expr expr() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BINARY:
+                    return new Binary(expr(), token(), expr());
+                case LIST:
+                    return new MList(exprs());
+                case ASSIGN:
+                    return local(new Assign(token(), expr()));
+                case TERNARY:
+                    return new Ternary(expr(), expr(), expr());
+                case LOGICAL:
+                    return new Logical(expr(), token(), expr());
+                case LAMBDA:
+                    return new Lambda((Stmt.Function) stmt());
+                case SUPER:
+                    return local(new Super(token(), token()));
+                case GROUPING:
+                    return new Grouping(expr());
+                case GET:
+                    return new Get(expr(), token());
+                case SET:
+                    return new Set(expr(), token(), expr());
+                case INDEX:
+                    return new Index(expr(), token(), expr());
+                case SET_INDEX:
+                    return new SetIndex(expr(), token(), expr(), expr());
+                case THIS:
+                    return local(new This(token()));
+                case LITERAL:
+                    return new Literal(literal());
+                case POSTFIX:
+                    return new Postfix(token(), expr());
+                case CALL: {
+                    Call call = new Call(expr(), token(), exprs());
+                    call.tail = in.get() != 0;
+                    return call;
+                }
+                case VARIABLE:
+                    return local(new Variable(token()));
+                case UNARY:
+                    return new Unary(token(), expr());
+                default:
+                    throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Expr local(Expr expr) {
+            int depth = in.getInt();
+            int slot = in.getInt();
+            if (depth >= 0)
+                Resolver.bind(expr, depth, slot);
+            return expr;
+        }
+
+        private Token token() {
+            byte type = in.get();
+            if (type < 0)
+                return null;
+            return new Token(TYPES[type], string(), literal(), in.getInt());
+        }
+
+        private List<Token> tokens() {
+            if (in.getInt(in.position()) == -1) {
+                in.getInt();
+                return null;
+            }
+
+            int count = count();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                tokens.add(token());
+            return tokens;
+        }
+
+        private Object literal() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case DOUBLE:
+                    return in.getDouble();
+                case STRING:
+                    return string();
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                default:
+                    throw new IllegalArgumentException("Unknown literal tag " + tag + ".");
+            }
+        }
+
+        String string() {
+            int index = in.getInt();
+            if (index < strings.size())
+                return strings.get(index);
+
+            byte[] bytes = new byte[count()];
+            in.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
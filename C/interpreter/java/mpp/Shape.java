@@ -0,0 +1,67 @@
+package mpp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hidden class describing the field layout of an instance: which name lives
+ * at which index of {@link MinhppInstance#values}. Instances that gain the
+ * same fields in the same order share one shape, and adding a field moves an
+ * instance along a transition tree rooted at its class' shape.
+ */
+final class Shape {
+    // Past this many fields a name lookup goes through a map instead of
+    // scanning the names.
+    private static final int LINEAR_LIMIT = 8;
+
+    private final Symbol[] names;
+    private Map<Symbol, Integer> indexes;
+    private Map<Symbol, Shape> transitions;
+
+    Shape() {
+        this.names = new Symbol[0];
+    }
+
+    private Shape(Symbol[] names) {
+        this.names = names;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    int indexOf(Symbol name) {
+        if (names.length > LINEAR_LIMIT) {
+            if (indexes == null) {
+                indexes = new HashMap<>();
+                for (int i = 0; i < names.length; ++i)
+                    indexes.put(names[i], i);
+            }
+
+            Integer index = indexes.get(name);
+            return index == null ? -1 : index;
+        }
+
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i] == name)
+                return i;
+        }
+        return -1;
+    }
+
+    // The shape reached by adding `name`; its index is this shape's size.
+    Shape with(Symbol name) {
+        if (transitions == null)
+            transitions = new HashMap<>();
+
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Symbol[] extended = Arrays.copyOf(names, names.length + 1);
+            extended[names.length] = name;
+            next = new Shape(extended);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -34,6 +34,9 @@ public abstract class Stmt {
         final Expr condition;
         final Stmt whileStmt;
         final Stmt increment;
+        int invariants;
+        Expr.Variable counter;
+        double step;
         public Loop(Expr condition, Stmt whileStmt, Stmt increment) {
             this.condition = condition;
             this.whileStmt = whileStmt;
@@ -0,0 +1,63 @@
+package mpp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The one canonical object for an identifier. Names are turned into symbols
+ * once, and from then on the runtime's tables compare them by identity and
+ * hash them by their id instead of going through String.hashCode and
+ * equals. Names used as globals are also numbered densely among
+ * themselves, so the globals can be a plain array that doesn't grow with
+ * every property and local name.
+ */
+final class Symbol {
+    private static final Map<String, Symbol> table = new HashMap<>();
+    private static int globalCount = 0;
+
+    final String name;
+    final int id;
+    // Index among the global names, -1 until one is defined with this name.
+    private int global = -1;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    static synchronized Symbol of(String name) {
+        Symbol symbol = table.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name, table.size());
+            table.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    // The index the name has as a global, or -1 when no global was ever
+    // defined with it.
+    int global() {
+        return global;
+    }
+
+    int numberGlobal() {
+        if (global < 0)
+            numberGlobal(this);
+        return global;
+    }
+
+    private static synchronized void numberGlobal(Symbol symbol) {
+        if (symbol.global < 0)
+            symbol.global = globalCount++;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
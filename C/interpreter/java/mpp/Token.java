@@ -5,6 +5,7 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    private Symbol symbol;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
@@ -13,6 +14,13 @@ public class Token {
         this.line = line;
     }
 
+    // The lexeme as a symbol, looked up the first time a name is used.
+    Symbol symbol() {
+        if (symbol == null)
+            symbol = Symbol.of(lexeme);
+        return symbol;
+    }
+
     public String toString() {
         return type + " " + lexeme + " " + literal;
     }
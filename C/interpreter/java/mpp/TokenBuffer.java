@@ -0,0 +1,146 @@
+package mpp;
+
+import static mpp.TokenType.*;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of an in-memory source, kept as parallel int arrays of type,
+ * start offset, length, line and name instead of one object per token. A
+ * {@link Token} is only built when the parser asks for one. Every lexeme
+ * other than a string or number literal is interned while scanning, so each
+ * distinct name is a single String and `names` holds its index; literals
+ * are sliced from the source when their token is built.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final char[] source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] names;
+    private Token[] tokens;
+    private int count = 0;
+
+    // Interned lexemes by index, and an open-addressed table of indexes
+    // keyed by String.hashCode, which lets a slice of the source be looked
+    // up without first copying it into a String.
+    private String[] symbols = new String[32];
+    private int symbolCount = 0;
+    private int[] table = new int[64];
+
+    TokenBuffer(char[] source) {
+        this.source = source;
+        int capacity = source.length / 4 + 16;
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        names = new int[capacity];
+        Arrays.fill(table, -1);
+    }
+
+    // `name` is the lexeme's index from intern(), or -1 for literals.
+    void add(TokenType type, int start, int length, int line, int name) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        names[count] = name;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    Token token(int index) {
+        if (tokens == null)
+            tokens = new Token[count];
+
+        Token token = tokens[index];
+        if (token == null) {
+            int start = starts[index];
+            int length = lengths[index];
+            TokenType type = type(index);
+
+            if (type == STRING) {
+                token = new Token(type, new String(source, start, length),
+                        new String(source, start + 1, length - 2), lines[index]);
+            } else if (type == NUMBER) {
+                String text = new String(source, start, length);
+                token = new Token(type, text, Double.parseDouble(text), lines[index]);
+            } else {
+                token = new Token(type, symbols[names[index]], null, lines[index]);
+            }
+            tokens[index] = token;
+        }
+        return token;
+    }
+
+    String name(int name) {
+        return symbols[name];
+    }
+
+    int intern(int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; ++i)
+            hash = 31 * hash + source[i];
+
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int name = table[slot];
+            if (name < 0) {
+                if (symbolCount == symbols.length)
+                    symbols = Arrays.copyOf(symbols, symbolCount * 2);
+                name = symbolCount++;
+                symbols[name] = new String(source, start, length);
+                table[slot] = name;
+                if (symbolCount * 2 > table.length)
+                    growTable();
+                return name;
+            }
+
+            String symbol = symbols[name];
+            if (symbol.hashCode() == hash && matches(symbol, start, length))
+                return name;
+        }
+    }
+
+    private boolean matches(String name, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; ++i) {
+            if (name.charAt(i) != source[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void growTable() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int name = 0; name < symbolCount; ++name) {
+            int slot = symbols[name].hashCode() & mask;
+            while (table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            table[slot] = name;
+        }
+    }
+}
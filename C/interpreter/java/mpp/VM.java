@@ -0,0 +1,786 @@
+package mpp;
+
+import static mpp.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack based virtual machine running the chunks produced by {@link Compiler}.
+ * Each frame owns a window of the value stack from its base, holding its
+ * receiver, arguments and locals by slot. A closure reaches the locals of
+ * the functions around it through {@link Upvalue}s, which point into the
+ * stack while the local is live and hold its value once it is gone. Only
+ * globals live in an {@link Environment}, shared with the natives.
+ *
+ * A call from script code, including getters, initializers and `super`
+ * calls, pushes a {@link CallFrame} onto a growable array and carries on in
+ * the same loop rather than recursing in Java. How deep scripts may recurse
+ * therefore depends on the heap, not on the thread's stack size; running
+ * out of frames is reported as a stack overflow at the call.
+ */
+class VM {
+    private static final class CallFrame {
+        MinhppFunction function;
+        byte[] code;
+        int[] lines;
+        Object[] constants;
+        int ip;
+        Upvalue[] upvalues;
+        MinhppInstance receiver;
+        int base;
+        Events.FunctionCall event;
+    }
+
+    // A local captured by a closure: the stack slot it lives in, or -1 once
+    // it went out of scope and its value moved here.
+    static final class Upvalue {
+        int index;
+        Object value;
+        // The next open upvalue down the stack.
+        Upvalue next;
+
+        Upvalue(int index) {
+            this.index = index;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    // Upvalues still pointing into the stack, highest slot first.
+    private Upvalue openUpvalues = null;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(Chunk chunk) {
+        Profiler profiler = interpreter.profiler;
+        int profiled = profiler == null ? 0 : profiler.depth();
+        try {
+            push(null);
+            pushFrame(null, null, chunk, null, sp - 1);
+            run(frameCount - 1);
+        } catch (RuntimeError error) {
+            Minhpp.runtimeError(error);
+            if (profiler != null)
+                profiler.unwind(profiled);
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    Object call(CompiledFunction function, MinhppInstance receiver, List<Object> args) {
+        int exitDepth = frameCount;
+        int argCount = args == null ? 0 : args.size();
+
+        push(function);
+        for (int i = 0; i < argCount; ++i)
+            push(args.get(i));
+
+        callFunction(function, receiver, argCount, sp - argCount - 1);
+        return run(exitDepth);
+    }
+
+    private Object run(int exitDepth) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.code;
+        int[] lines = frame.lines;
+        Object[] constants = frame.constants;
+        int base = frame.base;
+        Upvalue[] upvalues = frame.upvalues;
+        int ip = frame.ip;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OP_CONSTANT:
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OP_NIL:
+                    push(null);
+                    break;
+                case OP_TRUE:
+                    push(true);
+                    break;
+                case OP_FALSE:
+                    push(false);
+                    break;
+                case OP_POP:
+                    stack[--sp] = null;
+                    break;
+                case OP_DUP:
+                    push(stack[sp - 1]);
+                    break;
+                case OP_SWAP: {
+                    Object top = stack[sp - 1];
+                    stack[sp - 1] = stack[sp - 2];
+                    stack[sp - 2] = top;
+                    break;
+                }
+                case OP_GET_LOCAL:
+                    push(stack[base + readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OP_SET_LOCAL:
+                    stack[base + readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OP_GET_UPVALUE: {
+                    Upvalue upvalue = upvalues[readShort(code, ip)];
+                    push(upvalue.index >= 0 ? stack[upvalue.index] : upvalue.value);
+                    ip += 2;
+                    break;
+                }
+                case OP_SET_UPVALUE: {
+                    Upvalue upvalue = upvalues[readShort(code, ip)];
+                    if (upvalue.index >= 0)
+                        stack[upvalue.index] = stack[sp - 1];
+                    else
+                        upvalue.value = stack[sp - 1];
+                    ip += 2;
+                    break;
+                }
+                case OP_CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                    break;
+                case OP_GET_GLOBAL:
+                    push(globals.get((Token) constants[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                case OP_SET_GLOBAL:
+                    globals.assign((Token) constants[readShort(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OP_DEFINE:
+                    globals.define(((Token) constants[readShort(code, ip)]).lexeme, stack[--sp]);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case OP_GET_PROPERTY: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof MinhppInstance))
+                        throw new RuntimeError(name, "Only instances have property.");
+
+                    Object result = ((MinhppInstance) object).get(name);
+                    stack[sp - 1] = result;
+                    if (result instanceof MinhppFunction && ((MinhppFunction) result).arity() == -1) {
+                        frame.ip = ip;
+                        callGetter((MinhppFunction) result);
+
+                        frame = frames[frameCount - 1];
+                        code = frame.code;
+                        lines = frame.lines;
+                        constants = frame.constants;
+                        base = frame.base;
+                        upvalues = frame.upvalues;
+                        ip = frame.ip;
+                    }
+                    break;
+                }
+                case OP_GET_METHOD: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    PropertyCache cache = (PropertyCache) constants[readShort(code, ip + 2)];
+                    ip += 4;
+
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof MinhppInstance))
+                        throw new RuntimeError(name, "Only instances have property.");
+
+                    // Leaves receiver and method (or list native) for
+                    // OP_INVOKE, or nil and the property value when it isn't
+                    // a method.
+                    MinhppInstance instance = (MinhppInstance) object;
+                    MinhppFunction method = cache.method(instance, name);
+                    if (method != null && method.arity() != -1) {
+                        push(method);
+                        break;
+                    }
+                    MinhppList.Method nativeMethod = cache.listMethod(instance, name);
+                    if (nativeMethod != null) {
+                        push(nativeMethod);
+                        break;
+                    }
+
+                    Object result = cache.get(instance, name);
+                    stack[sp - 1] = null;
+                    push(result);
+                    if (result instanceof MinhppFunction && ((MinhppFunction) result).arity() == -1) {
+                        frame.ip = ip;
+                        callGetter((MinhppFunction) result);
+
+                        frame = frames[frameCount - 1];
+                        code = frame.code;
+                        lines = frame.lines;
+                        constants = frame.constants;
+                        base = frame.base;
+                        upvalues = frame.upvalues;
+                        ip = frame.ip;
+                    }
+                    break;
+                }
+                case OP_SET_PROPERTY: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Object value = stack[--sp];
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof MinhppInstance))
+                        throw new RuntimeError(name, "Only instances have fields.");
+
+                    ((MinhppInstance) object).set(name, value);
+                    stack[sp] = null;
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OP_GET_SUPER: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    MinhppClass superclass = (MinhppClass) stack[--sp];
+                    stack[sp] = null;
+                    MinhppFunction method = superclass.findMethod(name.symbol());
+                    if (method == null)
+                        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+
+                    MinhppFunction bound = method.bind((MinhppInstance) stack[sp - 1]);
+                    stack[sp - 1] = bound;
+                    if (method.arity() == -1) {
+                        frame.ip = ip;
+                        callGetter(bound);
+
+                        frame = frames[frameCount - 1];
+                        code = frame.code;
+                        lines = frame.lines;
+                        constants = frame.constants;
+                        base = frame.base;
+                        upvalues = frame.upvalues;
+                        ip = frame.ip;
+                    }
+                    break;
+                }
+                case OP_GET_SUPER_METHOD: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    MinhppClass superclass = (MinhppClass) stack[--sp];
+                    stack[sp] = null;
+                    MinhppFunction method = superclass.findMethod(name.symbol());
+                    if (method == null)
+                        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+
+                    // Same layout as OP_GET_METHOD: "this" stays below the
+                    // method, a getter leaves nil and its value.
+                    if (method.arity() != -1) {
+                        push(method);
+                        break;
+                    }
+
+                    MinhppFunction bound = method.bind((MinhppInstance) stack[sp - 1]);
+                    stack[sp - 1] = null;
+                    push(bound);
+                    frame.ip = ip;
+                    callGetter(bound);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    lines = frame.lines;
+                    constants = frame.constants;
+                    base = frame.base;
+                    upvalues = frame.upvalues;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OP_NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OP_GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left > (double) right;
+                    break;
+                }
+                case OP_GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left >= (double) right;
+                    break;
+                }
+                case OP_LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left < (double) right;
+                    break;
+                }
+                case OP_LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left <= (double) right;
+                    break;
+                }
+                case OP_ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left + (double) right;
+                    } else if (Rope.isString(left) || Rope.isString(right)) {
+                        stack[sp - 1] = Rope.concat(left, right);
+                    } else {
+                        throw new RuntimeError(lines[ip - 1], "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OP_SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left - (double) right;
+                    break;
+                }
+                case OP_MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    stack[sp - 1] = (double) left * (double) right;
+                    break;
+                }
+                case OP_DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    if ((double) right == 0)
+                        throw new RuntimeError(lines[ip - 1], "Division by 0.");
+                    stack[sp - 1] = (double) left / (double) right;
+                    break;
+                }
+                case OP_MODULO: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(lines[ip - 1], left, right);
+                    if ((double) right == 0)
+                        throw new RuntimeError(lines[ip - 1], "Division by 0.");
+                    stack[sp - 1] = (double) left % (double) right;
+                    break;
+                }
+                case OP_NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OP_NEGATE:
+                    checkNumberOperand(lines[ip - 1], stack[sp - 1]);
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                case OP_INCREMENT:
+                    checkNumberOperand(lines[ip - 1], stack[sp - 1]);
+                    stack[sp - 1] = (double) stack[sp - 1] + 1;
+                    break;
+                case OP_DECREMENT:
+                    checkNumberOperand(lines[ip - 1], stack[sp - 1]);
+                    stack[sp - 1] = (double) stack[sp - 1] - 1;
+                    break;
+                case OP_ECHO:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OP_JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case OP_JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(stack[sp - 1]))
+                        ip += 2;
+                    else
+                        ip += readShort(code, ip) + 2;
+                    break;
+                case OP_LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                case OP_CALL: {
+                    int argCount = readShort(code, ip);
+                    ip += 2;
+
+                    frame.ip = ip;
+                    callValue(argCount, lines[ip - 1]);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    lines = frame.lines;
+                    constants = frame.constants;
+                    base = frame.base;
+                    upvalues = frame.upvalues;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_INVOKE: {
+                    int argCount = readShort(code, ip);
+                    Token name = (Token) constants[readShort(code, ip + 2)];
+                    ip += 4;
+
+                    frame.ip = ip;
+                    invoke(argCount, name, lines[ip - 1]);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    lines = frame.lines;
+                    constants = frame.constants;
+                    base = frame.base;
+                    upvalues = frame.upvalues;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_CLOSURE: {
+                    Chunk function = (Chunk) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Upvalue[] captured = new Upvalue[function.upvalues.length];
+                    for (int i = 0; i < captured.length; ++i) {
+                        int upvalue = function.upvalues[i];
+                        if ((upvalue & 1) != 0)
+                            captured[i] = captureUpvalue(base + (upvalue >> 1));
+                        else
+                            captured[i] = upvalues[upvalue >> 1];
+                    }
+                    push(new CompiledFunction(this, function, captured));
+                    break;
+                }
+                case OP_SUPERCLASS: {
+                    Object superclass = stack[sp - 1];
+                    if (!(superclass instanceof MinhppClass))
+                        throw new RuntimeError(lines[ip - 1], "Superclass must be a class.");
+                    push(((MinhppClass) superclass).mClass);
+                    break;
+                }
+                case OP_CLASS: {
+                    Token name = (Token) constants[readShort(code, ip)];
+                    boolean hasSuperclass = readShort(code, ip + 2) != 0;
+                    int staticCount = readShort(code, ip + 4);
+                    int methodCount = readShort(code, ip + 6);
+                    ip += 8;
+
+                    // The closures for statics and then methods are on top,
+                    // with the superclass and its class left below them by
+                    // OP_SUPERCLASS.
+                    int first = sp - staticCount - methodCount;
+                    MinhppClass superclass = hasSuperclass ? (MinhppClass) stack[first - 2] : null;
+
+                    Map<Symbol, MinhppFunction> statics = new HashMap<>();
+                    for (int i = first; i < first + staticCount; ++i) {
+                        MinhppFunction method = (MinhppFunction) stack[i];
+                        statics.put(method.function.name.symbol(), method);
+                    }
+
+                    Map<Symbol, MinhppFunction> methods = new HashMap<>();
+                    for (int i = first + staticCount; i < sp; ++i) {
+                        MinhppFunction method = (MinhppFunction) stack[i];
+                        methods.put(method.function.name.symbol(), method);
+                    }
+                    Arrays.fill(stack, first, sp, null);
+                    sp = first;
+
+                    MinhppClass metaclass = new MinhppClass(null, superclass == null ? null : superclass.mClass,
+                            "Meta " + name.lexeme, statics);
+                    push(new MinhppClass(metaclass, superclass, name.lexeme, methods));
+                    break;
+                }
+                case OP_LIST: {
+                    int count = readShort(code, ip);
+                    ip += 2;
+
+                    Object[] items = Arrays.copyOfRange(stack, sp - count, sp);
+                    Arrays.fill(stack, sp - count, sp, null);
+                    sp -= count;
+                    push(new MinhppList(items));
+                    break;
+                }
+                case OP_GET_INDEX: {
+                    Token bracket = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Object index = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = Node.list(stack[sp - 1], bracket).get(bracket, index);
+                    break;
+                }
+                case OP_SET_INDEX: {
+                    Token bracket = (Token) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    Object value = stack[--sp];
+                    Object index = stack[--sp];
+                    MinhppList list = Node.list(stack[sp - 1], bracket);
+                    if (!(index instanceof Double))
+                        throw new RuntimeError(bracket, "List index must be a number.");
+
+                    list.set(bracket, (double) index, value);
+                    stack[sp + 1] = null;
+                    stack[sp] = null;
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OP_RETURN: {
+                    Object result = stack[--sp];
+                    if (frame.function != null) {
+                        if (frame.function.isInitializer)
+                            result = frame.receiver;
+                        if (interpreter.profiler != null)
+                            interpreter.profiler.exit();
+                        if (frame.event != null) {
+                            frame.event.commit();
+                            frame.event = null;
+                        }
+                    }
+
+                    closeUpvalues(frame.base);
+                    Arrays.fill(stack, frame.base, sp + 1, null);
+                    sp = frame.base;
+                    frame.function = null;
+                    frame.upvalues = null;
+                    frame.receiver = null;
+                    frameCount--;
+
+                    if (frameCount == exitDepth)
+                        return result;
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    lines = frame.lines;
+                    constants = frame.constants;
+                    base = frame.base;
+                    upvalues = frame.upvalues;
+                    ip = frame.ip;
+                    break;
+                }
+                default:
+                    throw new RuntimeError(lines[ip - 1], "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    private void callValue(int argCount, int line) {
+        Object callee = stack[sp - argCount - 1];
+        if (!(callee instanceof MinhppCallable))
+            throw new RuntimeError(line, "Can only call functions and classes.");
+
+        MinhppCallable function = (MinhppCallable) callee;
+        if (argCount != function.arity())
+            throw new RuntimeError(line,
+                    "Expected " + function.arity() + " arguments but got " + argCount + ".");
+
+        if (callee instanceof CompiledFunction) {
+            CompiledFunction compiled = (CompiledFunction) callee;
+            callFunction(compiled, compiled.receiver, argCount, sp - argCount - 1);
+            return;
+        }
+
+        if (callee instanceof MinhppClass) {
+            MinhppClass mClass = (MinhppClass) callee;
+            MinhppFunction initializer = mClass.initializer;
+            if (initializer instanceof CompiledFunction) {
+                Events.Instantiation.emit(mClass);
+                callFunction((CompiledFunction) initializer, new MinhppInstance(mClass), argCount,
+                        sp - argCount - 1);
+                return;
+            }
+        }
+
+        List<Object> args = new ArrayList<>(argCount);
+        for (int i = sp - argCount; i < sp; ++i)
+            args.add(stack[i]);
+
+        Object result = function.call(interpreter, args);
+        Arrays.fill(stack, sp - argCount - 1, sp, null);
+        sp -= argCount + 1;
+        push(result);
+    }
+
+    // Below the arguments sit the receiver and the method pushed by
+    // OP_GET_METHOD, or nil and any other callee.
+    private void invoke(int argCount, Token name, int line) {
+        Object receiver = stack[sp - argCount - 2];
+        if (receiver == null) {
+            System.arraycopy(stack, sp - argCount - 1, stack, sp - argCount - 2, argCount + 1);
+            stack[--sp] = null;
+            callValue(argCount, line);
+            return;
+        }
+
+        if (stack[sp - argCount - 1] instanceof MinhppList.Method) {
+            MinhppList.Method method = (MinhppList.Method) stack[sp - argCount - 1];
+            if (argCount != method.arity)
+                throw new RuntimeError(line,
+                        "Expected " + method.arity + " arguments but got " + argCount + ".");
+
+            List<Object> args = new ArrayList<>(argCount);
+            for (int i = sp - argCount; i < sp; ++i)
+                args.add(stack[i]);
+
+            Object result = method.call((MinhppList) receiver, name, args);
+            Arrays.fill(stack, sp - argCount - 2, sp, null);
+            sp -= argCount + 2;
+            push(result);
+            return;
+        }
+
+        MinhppFunction method = (MinhppFunction) stack[sp - argCount - 1];
+        if (argCount != method.arity())
+            throw new RuntimeError(line,
+                    "Expected " + method.arity() + " arguments but got " + argCount + ".");
+
+        if (method instanceof CompiledFunction) {
+            System.arraycopy(stack, sp - argCount, stack, sp - argCount - 1, argCount);
+            stack[--sp] = null;
+            callFunction((CompiledFunction) method, (MinhppInstance) receiver, argCount, sp - argCount - 1);
+            return;
+        }
+
+        List<Object> args = new ArrayList<>(argCount);
+        for (int i = sp - argCount; i < sp; ++i)
+            args.add(stack[i]);
+
+        Object result = method.call(interpreter, (MinhppInstance) receiver, args);
+        Arrays.fill(stack, sp - argCount - 2, sp, null);
+        sp -= argCount + 2;
+        push(result);
+    }
+
+    // The getter is already on top of the stack and is replaced by its result.
+    private void callGetter(MinhppFunction getter) {
+        if (getter instanceof CompiledFunction) {
+            callFunction((CompiledFunction) getter, getter.receiver, 0, sp - 1);
+            return;
+        }
+
+        stack[sp - 1] = getter.call(interpreter, null);
+    }
+
+    // Runs the function in a new frame over the callee and arguments from
+    // `base` up. The receiver takes the callee's place in slot 0, and the
+    // result will land there too.
+    private void callFunction(CompiledFunction function, MinhppInstance receiver, int argCount, int base) {
+        stack[base] = receiver;
+        pushFrame(function, receiver, function.chunk, function.upvalues, base);
+    }
+
+    private Upvalue captureUpvalue(int index) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.index > index) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.index == index)
+            return upvalue;
+
+        Upvalue created = new Upvalue(index);
+        created.next = upvalue;
+        if (previous == null)
+            openUpvalues = created;
+        else
+            previous.next = created;
+        return created;
+    }
+
+    // Moves the values of the upvalues at or above `last` off the stack.
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.index >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.value = stack[upvalue.index];
+            upvalue.index = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void pushFrame(MinhppFunction function, MinhppInstance receiver, Chunk chunk,
+            Upvalue[] upvalues, int base) {
+        CallFrame frame;
+        try {
+            if (frameCount == frames.length)
+                frames = Arrays.copyOf(frames, frameCount * 2);
+            frame = frames[frameCount];
+            if (frame == null) {
+                frame = new CallFrame();
+                frames[frameCount] = frame;
+            }
+        } catch (OutOfMemoryError error) {
+            throw stackOverflow();
+        }
+        frameCount++;
+        if (function != null && interpreter.profiler != null)
+            interpreter.profiler.enter(function.function);
+
+        frame.function = function;
+        frame.code = chunk.code;
+        frame.lines = chunk.lines;
+        frame.constants = chunk.constants;
+        frame.ip = 0;
+        frame.upvalues = upvalues;
+        frame.receiver = receiver;
+        frame.base = base;
+        frame.event = function == null ? null : Events.FunctionCall.start(function.function);
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            try {
+                stack = Arrays.copyOf(stack, sp * 2);
+            } catch (OutOfMemoryError error) {
+                throw stackOverflow();
+            }
+        }
+        stack[sp++] = value;
+    }
+
+    // Frames and the value stack grow until the heap runs out, and that is
+    // the script's stack overflow. Both are dropped before reporting it so
+    // there is room to do so; the error unwinds to interpret() regardless.
+    // run() only stores ip on calls, so the line is that of the frame's
+    // latest call, or its first line.
+    private RuntimeError stackOverflow() {
+        CallFrame caller = frames[frameCount - 1];
+        int line = caller.lines[Math.max(caller.ip - 1, 0)];
+        stack = new Object[256];
+        sp = 0;
+        frames = new CallFrame[64];
+        frameCount = 0;
+        openUpvalues = null;
+        return new RuntimeError(line, "Stack overflow.");
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private static void checkNumberOperand(int line, Object operand) {
+        if (!(operand instanceof Double))
+            throw new RuntimeError(line, "Operand must be a number.");
+    }
+
+    private static void checkNumberOperands(int line, Object left, Object right) {
+        if (!(left instanceof Double) || !(right instanceof Double))
+            throw new RuntimeError(line, "Operand must be a number.");
+    }
+}
@@ -14,26 +14,28 @@ public class GenerateAst {
 
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Binary : Expr left, Token operator, Expr right",
+                "Binary : Expr left, Token operator, Expr right | Stmt.Loop invariantIn, int entry = -1, Object cached, double cachedNumber",
                 "MList : List<Expr> init",
-                "Assign : Token name, Expr value",
+                "Assign : Token name, Expr value | int depth = -1, int slot",
                 "Ternary : Expr condition, Expr trueExpr, Expr falseExpr",
                 "Logical : Expr left, Token operator, Expr right",
                 "Lambda : Stmt.Function function",
-                "Super : Token keyword, Token method",
+                "Super : Token keyword, Token method | int depth = -1, int slot",
                 "Grouping : Expr expression",
-                "Get : Expr object, Token name",
-                "Set : Expr object, Token name, Expr value",
-                "This : Token keyword",
+                "Get : Expr object, Token name | final PropertyCache cache = new PropertyCache()",
+                "Set : Expr object, Token name, Expr value | final PropertyCache cache = new PropertyCache()",
+                "Index : Expr object, Token bracket, Expr index",
+                "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+                "This : Token keyword | int depth = -1, int slot",
                 "Literal : Object value",
                 "Postfix: Token operator, Expr left",
-                "Call : Expr callee, Token paren, List<Expr> arguments",
-                "Variable : Token name",
+                "Call : Expr callee, Token paren, List<Expr> arguments | boolean tail",
+                "Variable : Token name | int depth = -1, int slot",
                 "Unary : Token operator, Expr right"));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Block : List<Stmt> statements",
-                "Loop : Expr condition, Stmt whileStmt, Stmt increment",
+                "Loop : Expr condition, Stmt whileStmt, Stmt increment | int entries, Expr.Variable counter, double step",
                 "If : Expr condition, Stmt trueStmt, Stmt falseStmt",
                 "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> statics",
                 "Var : Token name, Expr initializer",
@@ -83,15 +85,31 @@ public class GenerateAst {
         writer.println();
     }
 
+    // Fields after '|' are declared as written and left out of the
+    // constructor; they hold per-node state such as inline caches, where
+    // the resolver found a variable and what the loop optimizer found.
     private static void defineType(PrintWriter writer, String name, String className, String fields) {
         writer.println("    public static class " + className + " extends " + name + " {");
 
+        String extra = null;
+        if (fields != null && fields.contains("|")) {
+            String[] split = fields.split("\\|");
+            fields = split[0].trim();
+            extra = split[1].trim();
+        }
+
         if (fields != null) {
             String[] fieldsSplit = fields.split(", ");
             for (String field : fieldsSplit) {
                 writer.println("        final " + field + ";");
             }
 
+            if (extra != null) {
+                for (String field : extra.split(", ")) {
+                    writer.println("        " + field + ";");
+                }
+            }
+
             writer.println("        public " + className + "(" + fields + ") {");
             for (String field : fieldsSplit) {
                 String fieldName = field.split(" ")[1];